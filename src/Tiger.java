@@ -1,24 +1,36 @@
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.util.List;
 
-import lexer.Lexer;
-import lexer.Token;
-import parser.Parser;
 import control.CommandLine;
 import control.Control;
+import control.Driver;
+import control.Server;
+import lexer.Lexer;
 
 public class Tiger
 {
   public static void main(String[] args)
   {
-    InputStream fstream;
-    Parser parser;
-
     // ///////////////////////////////////////////////////////
     // handle command line arguments
     CommandLine cmd = new CommandLine();
-    String fname = cmd.scan(args);
+    List<String> fnames = null;
+    try {
+      fnames = cmd.scan(args);
+    } catch (CommandLine.Abort e) {
+      System.exit(1);
+    }
+
+    // /////////////////////////////////////////////
+    // run as a compile server, till killed
+    if (Control.ConServer.serve != -1) {
+      try {
+        Server.serve(Control.ConServer.serve);
+      } catch (Exception e) {
+        System.out.println(e.toString());
+      }
+      System.exit(1);
+    }
 
     // /////////////////////////////////////////////
     // the straight-line interpreter (and compiler)    
@@ -32,49 +44,43 @@ public class Tiger
         slpmain.doit(slp.Samples.dividebyzero);
         System.exit(0);
       }
+      // programs in the text form of slp.Parser
+      for (String fname : fnames) {
+        try {
+          slpmain.doit(new slp.Parser(fname, Lexer.readFile(fname)).parse());
+        } catch (IOException e) {
+          System.out.println("can not read the file: " + e.toString());
+          System.exit(1);
+        } catch (slp.Parser.SyntaxError e) {
+          System.out.println(e.getMessage());
+          System.exit(1);
+        }
+      }
+      if (!fnames.isEmpty())
+        System.exit(0);
       slpmain.doit(slp.Samples.prog);
       System.exit(0);
     }
 
-    if (fname == null) {
+    if (fnames.isEmpty()) {
       cmd.usage();
       return;
     }
 
-    // /////////////////////////////////////////////////////
-    // it would be helpful to be able to test the lexer
-    // independently.
-    if (Control.ConLexer.test) {
-      System.out.println("Testing the lexer. All tokens:");
+    // /////////////////////////////////////////////
+    // let a compile server do the work, if there is one
+    // running; compile here otherwise.
+    if (Control.ConServer.client != -1) {
       try {
-        fstream = new BufferedInputStream(new FileInputStream(fname));
-        Lexer lexer = new Lexer(fname, fstream);
-        Token token = lexer.nextToken();
-        while (token.kind != Token.Kind.TOKEN_EOF) {
-          System.out.println(token.toString());
-          token = lexer.nextToken();
-        }
-        fstream.close();
+        int status = Server.forward(Control.ConServer.client, args);
+        if (status != -1)
+          System.exit(status);
       } catch (Exception e) {
         System.out.println(e.toString());
-        e.printStackTrace();
+        System.exit(1);
       }
-      System.exit(1);
     }
 
-    // /////////////////////////////////////////////////////////
-    // normal compilation phases.
-    try {
-      fstream = new BufferedInputStream(new FileInputStream(fname));
-      parser = new Parser(fname, fstream);
-
-      parser.parse();
-
-      fstream.close();
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.exit(1);
-    }
-    return;
+    System.exit(Driver.run(fnames, null));
   }
 }
@@ -0,0 +1,469 @@
+package ast;
+
+import java.util.List;
+
+import util.Symbol;
+
+public class Ast
+{
+  // base class of all the nodes: where the node starts in the
+  // source file
+  public static abstract class T
+  {
+    public int lineNum;
+    public int colNum;
+  }
+
+  // ////////////////////////////////////////////////
+  // type
+  public static class Type
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    // boolean
+    public static class Boolean extends T
+    {
+      public Boolean()
+      {
+      }
+    }
+
+    // class
+    public static class ClassType extends T
+    {
+      public Symbol id;
+
+      public ClassType(Symbol id)
+      {
+        this.id = id;
+      }
+    }
+
+    // int
+    public static class Int extends T
+    {
+      public Int()
+      {
+      }
+    }
+
+    // int[]
+    public static class IntArray extends T
+    {
+      public IntArray()
+      {
+      }
+    }
+  }// end of type
+
+  // ////////////////////////////////////////////////
+  // declaration
+  public static class Dec
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    // type id
+    public static class DecSingle extends T
+    {
+      public Type.T type;
+      public Symbol id;
+
+      public DecSingle(Type.T type, Symbol id)
+      {
+        this.type = type;
+        this.id = id;
+      }
+    }
+  }// end of declaration
+
+  // ////////////////////////////////////////////////
+  // expression
+  public static class Exp
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    // left + right
+    public static class Add extends T
+    {
+      public T left;
+      public T right;
+
+      public Add(T left, T right)
+      {
+        this.left = left;
+        this.right = right;
+      }
+    }
+
+    // left && right
+    public static class And extends T
+    {
+      public T left;
+      public T right;
+
+      public And(T left, T right)
+      {
+        this.left = left;
+        this.right = right;
+      }
+    }
+
+    // array[index]
+    public static class ArraySelect extends T
+    {
+      public T array;
+      public T index;
+
+      public ArraySelect(T array, T index)
+      {
+        this.array = array;
+        this.index = index;
+      }
+    }
+
+    // exp.id(args)
+    public static class Call extends T
+    {
+      public T exp;
+      public Symbol id;
+      public List<T> args;
+
+      public Call(T exp, Symbol id, List<T> args)
+      {
+        this.exp = exp;
+        this.id = id;
+        this.args = args;
+      }
+    }
+
+    // false
+    public static class False extends T
+    {
+      public False()
+      {
+      }
+    }
+
+    // id
+    public static class Id extends T
+    {
+      public Symbol id;
+
+      public Id(Symbol id)
+      {
+        this.id = id;
+      }
+    }
+
+    // array.length
+    public static class Length extends T
+    {
+      public T array;
+
+      public Length(T array)
+      {
+        this.array = array;
+      }
+    }
+
+    // left < right
+    public static class Lt extends T
+    {
+      public T left;
+      public T right;
+
+      public Lt(T left, T right)
+      {
+        this.left = left;
+        this.right = right;
+      }
+    }
+
+    // new int[exp]
+    public static class NewIntArray extends T
+    {
+      public T exp;
+
+      public NewIntArray(T exp)
+      {
+        this.exp = exp;
+      }
+    }
+
+    // new id()
+    public static class NewObject extends T
+    {
+      public Symbol id;
+
+      public NewObject(Symbol id)
+      {
+        this.id = id;
+      }
+    }
+
+    // !exp
+    public static class Not extends T
+    {
+      public T exp;
+
+      public Not(T exp)
+      {
+        this.exp = exp;
+      }
+    }
+
+    // integer literal
+    public static class Num extends T
+    {
+      public int num;
+
+      public Num(int num)
+      {
+        this.num = num;
+      }
+    }
+
+    // left - right
+    public static class Sub extends T
+    {
+      public T left;
+      public T right;
+
+      public Sub(T left, T right)
+      {
+        this.left = left;
+        this.right = right;
+      }
+    }
+
+    // this
+    public static class This extends T
+    {
+      public This()
+      {
+      }
+    }
+
+    // left * right
+    public static class Times extends T
+    {
+      public T left;
+      public T right;
+
+      public Times(T left, T right)
+      {
+        this.left = left;
+        this.right = right;
+      }
+    }
+
+    // true
+    public static class True extends T
+    {
+      public True()
+      {
+      }
+    }
+  }// end of expression
+
+  // ////////////////////////////////////////////////
+  // statement
+  public static class Stm
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    // id = exp;
+    public static class Assign extends T
+    {
+      public Symbol id;
+      public Exp.T exp;
+
+      public Assign(Symbol id, Exp.T exp)
+      {
+        this.id = id;
+        this.exp = exp;
+      }
+    }
+
+    // id[index] = exp;
+    public static class AssignArray extends T
+    {
+      public Symbol id;
+      public Exp.T index;
+      public Exp.T exp;
+
+      public AssignArray(Symbol id, Exp.T index, Exp.T exp)
+      {
+        this.id = id;
+        this.index = index;
+        this.exp = exp;
+      }
+    }
+
+    // { stms }
+    public static class Block extends T
+    {
+      public List<T> stms;
+
+      public Block(List<T> stms)
+      {
+        this.stms = stms;
+      }
+    }
+
+    // if (condition) thenn else elsee
+    public static class If extends T
+    {
+      public Exp.T condition;
+      public T thenn;
+      public T elsee;
+
+      public If(Exp.T condition, T thenn, T elsee)
+      {
+        this.condition = condition;
+        this.thenn = thenn;
+        this.elsee = elsee;
+      }
+    }
+
+    // System.out.println(exp);
+    public static class Print extends T
+    {
+      public Exp.T exp;
+
+      public Print(Exp.T exp)
+      {
+        this.exp = exp;
+      }
+    }
+
+    // while (condition) body
+    public static class While extends T
+    {
+      public Exp.T condition;
+      public T body;
+
+      public While(Exp.T condition, T body)
+      {
+        this.condition = condition;
+        this.body = body;
+      }
+    }
+  }// end of statement
+
+  // ////////////////////////////////////////////////
+  // method
+  public static class Method
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    public static class MethodSingle extends T
+    {
+      public Type.T retType;
+      public Symbol id;
+      public List<Dec.T> formals;
+      public List<Dec.T> locals;
+      public List<Stm.T> stms;
+      public Exp.T retExp;
+
+      public MethodSingle(Type.T retType, Symbol id, List<Dec.T> formals,
+          List<Dec.T> locals, List<Stm.T> stms, Exp.T retExp)
+      {
+        this.retType = retType;
+        this.id = id;
+        this.formals = formals;
+        this.locals = locals;
+        this.stms = stms;
+        this.retExp = retExp;
+      }
+    }
+  }// end of method
+
+  // ////////////////////////////////////////////////
+  // class
+  public static class Class
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    public static class ClassSingle extends T
+    {
+      public Symbol id;
+      public Symbol extendss; // null for non-existing "extends"
+      public List<Dec.T> decs;
+      public List<Method.T> methods;
+
+      public ClassSingle(Symbol id, Symbol extendss, List<Dec.T> decs,
+          List<Method.T> methods)
+      {
+        this.id = id;
+        this.extendss = extendss;
+        this.decs = decs;
+        this.methods = methods;
+      }
+    }
+  }// end of class
+
+  // ////////////////////////////////////////////////
+  // main class
+  public static class MainClass
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    public static class MainClassSingle extends T
+    {
+      public Symbol id;
+      public Symbol arg;
+      public Stm.T stm;
+
+      public MainClassSingle(Symbol id, Symbol arg, Stm.T stm)
+      {
+        this.id = id;
+        this.arg = arg;
+        this.stm = stm;
+      }
+    }
+  }// end of main class
+
+  // ////////////////////////////////////////////////
+  // whole program
+  public static class Program
+  {
+    // base class
+    public static abstract class T extends Ast.T
+    {
+    }
+
+    public static class ProgramSingle extends T
+    {
+      public MainClass.T mainClass;
+      public List<Class.T> classes;
+
+      public ProgramSingle(MainClass.T mainClass, List<Class.T> classes)
+      {
+        this.mainClass = mainClass;
+        this.classes = classes;
+      }
+    }
+  }// end of program
+}
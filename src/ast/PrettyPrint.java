@@ -0,0 +1,272 @@
+package ast;
+
+import java.util.List;
+
+import ast.Ast.Dec;
+import ast.Ast.Exp;
+import ast.Ast.MainClass;
+import ast.Ast.Method;
+import ast.Ast.Program;
+import ast.Ast.Stm;
+import ast.Ast.Type;
+import util.Bug;
+
+// Print an AST back as MiniJava source. Expressions are fully
+// parenthesized, so the output parses back to the same tree.
+public class PrettyPrint
+{
+  private StringBuilder buf;
+  private int indentLevel;
+
+  public PrettyPrint()
+  {
+    this.buf = new StringBuilder();
+    this.indentLevel = 0;
+  }
+
+  private void indent()
+  {
+    for (int i = 0; i < indentLevel; i++)
+      buf.append("  ");
+  }
+
+  private void say(String s)
+  {
+    buf.append(s);
+  }
+
+  private void sayln(String s)
+  {
+    buf.append(s).append('\n');
+  }
+
+  // ///////////////////////////////////////////
+  // type
+  private void printType(Type.T type)
+  {
+    if (type instanceof Type.Boolean)
+      say("boolean");
+    else if (type instanceof Type.ClassType)
+      say(((Type.ClassType) type).id.name);
+    else if (type instanceof Type.Int)
+      say("int");
+    else if (type instanceof Type.IntArray)
+      say("int[]");
+    else
+      new Bug();
+  }
+
+  // ///////////////////////////////////////////
+  // expression
+  private void printBinary(Exp.T left, String op, Exp.T right)
+  {
+    say("(");
+    printExp(left);
+    say(" " + op + " ");
+    printExp(right);
+    say(")");
+  }
+
+  private void printExp(Exp.T exp)
+  {
+    if (exp instanceof Exp.Add) {
+      Exp.Add e = (Exp.Add) exp;
+      printBinary(e.left, "+", e.right);
+    } else if (exp instanceof Exp.And) {
+      Exp.And e = (Exp.And) exp;
+      printBinary(e.left, "&&", e.right);
+    } else if (exp instanceof Exp.ArraySelect) {
+      Exp.ArraySelect e = (Exp.ArraySelect) exp;
+      printExp(e.array);
+      say("[");
+      printExp(e.index);
+      say("]");
+    } else if (exp instanceof Exp.Call) {
+      Exp.Call e = (Exp.Call) exp;
+      printExp(e.exp);
+      say("." + e.id.name + "(");
+      for (int i = 0; i < e.args.size(); i++) {
+        if (i > 0)
+          say(", ");
+        printExp(e.args.get(i));
+      }
+      say(")");
+    } else if (exp instanceof Exp.False) {
+      say("false");
+    } else if (exp instanceof Exp.Id) {
+      say(((Exp.Id) exp).id.name);
+    } else if (exp instanceof Exp.Length) {
+      printExp(((Exp.Length) exp).array);
+      say(".length");
+    } else if (exp instanceof Exp.Lt) {
+      Exp.Lt e = (Exp.Lt) exp;
+      printBinary(e.left, "<", e.right);
+    } else if (exp instanceof Exp.NewIntArray) {
+      say("new int[");
+      printExp(((Exp.NewIntArray) exp).exp);
+      say("]");
+    } else if (exp instanceof Exp.NewObject) {
+      say("new " + ((Exp.NewObject) exp).id.name + "()");
+    } else if (exp instanceof Exp.Not) {
+      say("!");
+      printExp(((Exp.Not) exp).exp);
+    } else if (exp instanceof Exp.Num) {
+      say(Integer.toString(((Exp.Num) exp).num));
+    } else if (exp instanceof Exp.Sub) {
+      Exp.Sub e = (Exp.Sub) exp;
+      printBinary(e.left, "-", e.right);
+    } else if (exp instanceof Exp.This) {
+      say("this");
+    } else if (exp instanceof Exp.Times) {
+      Exp.Times e = (Exp.Times) exp;
+      printBinary(e.left, "*", e.right);
+    } else if (exp instanceof Exp.True) {
+      say("true");
+    } else {
+      new Bug();
+    }
+  }
+
+  // ///////////////////////////////////////////
+  // statement
+  private void printStm(Stm.T stm)
+  {
+    if (stm instanceof Stm.Assign) {
+      Stm.Assign s = (Stm.Assign) stm;
+      indent();
+      say(s.id.name + " = ");
+      printExp(s.exp);
+      sayln(";");
+    } else if (stm instanceof Stm.AssignArray) {
+      Stm.AssignArray s = (Stm.AssignArray) stm;
+      indent();
+      say(s.id.name + "[");
+      printExp(s.index);
+      say("] = ");
+      printExp(s.exp);
+      sayln(";");
+    } else if (stm instanceof Stm.Block) {
+      Stm.Block s = (Stm.Block) stm;
+      indent();
+      sayln("{");
+      indentLevel++;
+      for (Stm.T t : s.stms)
+        printStm(t);
+      indentLevel--;
+      indent();
+      sayln("}");
+    } else if (stm instanceof Stm.If) {
+      Stm.If s = (Stm.If) stm;
+      indent();
+      say("if (");
+      printExp(s.condition);
+      sayln(")");
+      indentLevel++;
+      printStm(s.thenn);
+      indentLevel--;
+      indent();
+      sayln("else");
+      indentLevel++;
+      printStm(s.elsee);
+      indentLevel--;
+    } else if (stm instanceof Stm.Print) {
+      indent();
+      say("System.out.println(");
+      printExp(((Stm.Print) stm).exp);
+      sayln(");");
+    } else if (stm instanceof Stm.While) {
+      Stm.While s = (Stm.While) stm;
+      indent();
+      say("while (");
+      printExp(s.condition);
+      sayln(")");
+      indentLevel++;
+      printStm(s.body);
+      indentLevel--;
+    } else {
+      new Bug();
+    }
+  }
+
+  // ///////////////////////////////////////////
+  // declarations, methods and classes
+  private void printDecs(List<Dec.T> decs)
+  {
+    for (Dec.T dec : decs) {
+      Dec.DecSingle d = (Dec.DecSingle) dec;
+      indent();
+      printType(d.type);
+      sayln(" " + d.id.name + ";");
+    }
+  }
+
+  private void printMethod(Method.T method)
+  {
+    Method.MethodSingle m = (Method.MethodSingle) method;
+    indent();
+    say("public ");
+    printType(m.retType);
+    say(" " + m.id.name + "(");
+    for (int i = 0; i < m.formals.size(); i++) {
+      Dec.DecSingle d = (Dec.DecSingle) m.formals.get(i);
+      if (i > 0)
+        say(", ");
+      printType(d.type);
+      say(" " + d.id.name);
+    }
+    sayln(")");
+    indent();
+    sayln("{");
+    indentLevel++;
+    printDecs(m.locals);
+    for (Stm.T s : m.stms)
+      printStm(s);
+    indent();
+    say("return ");
+    printExp(m.retExp);
+    sayln(";");
+    indentLevel--;
+    indent();
+    sayln("}");
+  }
+
+  private void printClass(Ast.Class.T clazz)
+  {
+    Ast.Class.ClassSingle c = (Ast.Class.ClassSingle) clazz;
+    say("class " + c.id.name);
+    if (c.extendss != null)
+      say(" extends " + c.extendss.name);
+    sayln("\n{");
+    indentLevel++;
+    printDecs(c.decs);
+    for (Method.T m : c.methods)
+      printMethod(m);
+    indentLevel--;
+    sayln("}");
+  }
+
+  private void printMainClass(MainClass.T mainClass)
+  {
+    MainClass.MainClassSingle c = (MainClass.MainClassSingle) mainClass;
+    sayln("class " + c.id.name + "\n{");
+    sayln("  public static void main(String[] " + c.arg.name + ")");
+    sayln("  {");
+    indentLevel = 2;
+    printStm(c.stm);
+    indentLevel = 0;
+    sayln("  }");
+    sayln("}");
+  }
+
+  public String print(Program.T program)
+  {
+    Program.ProgramSingle p = (Program.ProgramSingle) program;
+    buf.setLength(0);
+    printMainClass(p.mainClass);
+    for (Ast.Class.T c : p.classes) {
+      sayln("");
+      printClass(c);
+    }
+    return buf.toString();
+  }
+}
@@ -7,6 +7,18 @@ import control.Control.ConSlp;
 
 public class CommandLine
 {
+  // Thrown by scan() to stop: on "-help", or on an error in the
+  // command line, once reported on System.out. The exit status is 1.
+  // A compile server catches it and goes on serving.
+  @SuppressWarnings("serial")
+  public static class Abort extends RuntimeException
+  {
+    public Abort()
+    {
+      super(null, null, false, false);
+    }
+  }
+
   static interface F<X>
   {
     public void f(X x);
@@ -41,33 +53,91 @@ public class CommandLine
   @SuppressWarnings("unchecked")
   public CommandLine()
   {
-    this.args = new util.Flist<Arg<Object>>().list(new Arg<Object>("help",
+    this.args = new util.Flist<Arg<Object>>().list(new Arg<Object>("client",
+        "<port>", "send the command line to the compile server on <port>",
+        Kind.Int, (n) -> {
+          Control.ConServer.client = port((Integer) n);
+          return;
+        }), new Arg<Object>("help",
         null, "show this help information", Kind.Empty, (s) -> {
           usage();
-          System.exit(1);
+          throw new Abort();
+        }), new Arg<Object>("dump", "{ast}",
+        "dump information about the given ir", Kind.String, (ss) -> {
+          String s = (String) ss;
+
+          if (s.equals("ast"))
+            Control.ConAst.dumpAst = true;
+          else {
+            System.out.println("bad argument: " + s);
+            output();
+            throw new Abort();
+          }
+          return;
+        }), new Arg<Object>("jobs", "<n>",
+        "number of files to compile in parallel", Kind.Int, (n) -> {
+          int jobs = (Integer) n;
+          if (jobs < 1) {
+            System.out.println("Error: jobs: requires a positive integer");
+            output();
+            throw new Abort();
+          }
+          Control.ConDriver.jobs = jobs;
           return;
         }), new Arg<Object>("lex", null, "dump the result of lexical analysis",
         Kind.Empty, (s) -> {
           Control.ConLexer.dump = true;
           return;
-        }), new Arg<Object>("slp", "{args|interp|compile}",
-        "run the SLP interpreter", Kind.String, (ss) -> {
+        }), new Arg<Object>("lexer", "{scalar|pipe|parallel}",
+        "lex a byte at a time, alongside the parser, or a chunk per thread",
+        Kind.String, (ss) -> {
+          String s = (String) ss;
+
+          if (s.equals("scalar"))
+            Control.ConLexer.scalar = true;
+          else if (s.equals("pipe"))
+            Control.ConLexer.pipe = true;
+          else if (s.equals("parallel"))
+            Control.ConLexer.parallel = true;
+          else {
+            System.out.println("bad argument: " + s);
+            output();
+            throw new Abort();
+          }
+          return;
+        }), new Arg<Object>("server", "<port>",
+        "run as a compile server on the loopback <port>", Kind.Int, (n) -> {
+          Control.ConServer.serve = port((Integer) n);
+          return;
+        }), new Arg<Object>("slp", "{args|interp|closure|jvm|compile|x64}",
+        "run the SLP interpreter on the given files, or on a sample",
+        Kind.String, (ss) -> {
           String s = (String) ss;
 
           if (s.equals("args")) {
             ConSlp.action = ConSlp.T.ARGS;
           } else if (s.equals("interp"))
             ConSlp.action = ConSlp.T.INTERP;
+          else if (s.equals("closure"))
+            ConSlp.action = ConSlp.T.CLOSURE;
+          else if (s.equals("jvm"))
+            ConSlp.action = ConSlp.T.JVM;
           else if (s.equals("compile"))
             ConSlp.action = ConSlp.T.COMPILE;
+          else if (s.equals("x64"))
+            ConSlp.action = ConSlp.T.X64;
           else if (s.equals("div"))
             ConSlp.div = true;
           else if (s.equals("keepasm"))
             ConSlp.keepasm = true;
+          else if (s.equals("nofold"))
+            ConSlp.fold = false;
+          else if (s.equals("gcc"))
+            ConSlp.gcc = true;
           else {
             System.out.println("bad argument: " + s);
             output();
-            System.exit(1);
+            throw new Abort();
           }
           return;
         }), new Arg<Object>("testlexer", null,
@@ -77,21 +147,26 @@ public class CommandLine
         }));
   }
 
-  // scan the command line arguments, return the file name
-  // in it. The file name should be unique.
-  public String scan(String[] cargs)
+  private int port(int n)
   {
-    String filename = null;
+    if (n < 1 || n > 65535) {
+      System.out.println("Error: bad port number: " + n);
+      output();
+      throw new Abort();
+    }
+    return n;
+  }
+
+  // scan the command line arguments, return the file names
+  // in it, which may also name directories.
+  public LinkedList<String> scan(String[] cargs)
+  {
+    LinkedList<String> filenames = new LinkedList<String>();
 
     for (int i = 0; i < cargs.length; i++) {
       if (!cargs[i].startsWith("-")) {
-        if (filename == null) {
-          filename = cargs[i];
-          continue;
-        } else {
-          System.out.println("Error: can only compile one Java file a time");
-          System.exit(1);
-        }
+        filenames.addLast(cargs[i]);
+        continue;
       } else {
       }
 
@@ -109,7 +184,7 @@ public class CommandLine
           if (i >= cargs.length - 1) {
             System.out.println("Error: "+cargs[i] + ": requires an argument");
             this.output();
-            System.exit(1);
+            throw new Abort();
           }
           i++;
           break;
@@ -125,7 +200,7 @@ public class CommandLine
           else {
             System.out.println("Error: "+arg.name + ": requires a boolean");
             this.output();
-            System.exit(1);
+            throw new Abort();
           }
           break;
         case Int:
@@ -135,7 +210,7 @@ public class CommandLine
           } catch (java.lang.NumberFormatException e) {
             System.out.println("Error: "+arg.name + ": requires an integer");
             this.output();
-            System.exit(1);
+            throw new Abort();
           }
           arg.action.f(num);
           break;
@@ -154,10 +229,10 @@ public class CommandLine
       if (!found) {
         System.out.println("invalid option: " + cargs[i]);
         this.output();
-        System.exit(1);
+        throw new Abort();
       }
     }
-    return filename;
+    return filenames;
   }
 
   private void outputSpace(int n)
@@ -203,7 +278,7 @@ public class CommandLine
   {
     System.out
         .println("The Tiger compiler. Copyright (C) 2013-, SSE of USTC.\n"
-            + "Usage: java Tiger [options] <filename>\n");
+            + "Usage: java Tiger [options] <filename|directory>...\n");
     output();
     return;
   }
@@ -2,20 +2,71 @@ package control;
 
 public class Control
 {
+  // the compiler driver
+  public static class ConDriver
+  {
+    // number of files compiled in parallel
+    public static int jobs = Runtime.getRuntime().availableProcessors();
+  }
+
+  // the compile server (daemon) and its client
+  public static class ConServer
+  {
+    // the loopback port to serve on, or to send the command
+    // line to; -1 if none
+    public static int serve = -1;
+    public static int client = -1;
+  }
+
   // the lexer
   public static class ConLexer
   {
     public static boolean test = false;
     public static boolean dump = false;
+    // skip blanks and comments a byte at a time
+    public static boolean scalar = false;
+    // lex on a thread of its own, feeding the parser as it goes
+    public static boolean pipe = false;
+    // lex a file on several threads, a chunk of it each
+    public static boolean parallel = false;
   }
   
+  // the abstract syntax tree
+  public static class ConAst
+  {
+    public static boolean dumpAst = false;
+  }
+
   // the straight-line program interpreter
   public static class ConSlp
   {
-    public enum T{NONE, ARGS, INTERP, COMPILE, TEST, DIV};
+    public enum T{NONE, ARGS, INTERP, CLOSURE, JVM, COMPILE, X64, TEST, DIV};
     
     public static T action = T.NONE;
     public static boolean div = false;
     public static boolean keepasm = false;
+    public static boolean fold = true;
+    // assemble and link with gcc, rather than in memory
+    public static boolean gcc = false;
+  }
+
+  // Put all the options back to their defaults: a compile server
+  // runs one command line after another in the same process.
+  public static void reset()
+  {
+    ConDriver.jobs = Runtime.getRuntime().availableProcessors();
+    ConServer.serve = -1;
+    ConServer.client = -1;
+    ConLexer.test = false;
+    ConLexer.dump = false;
+    ConLexer.scalar = false;
+    ConLexer.pipe = false;
+    ConLexer.parallel = false;
+    ConAst.dumpAst = false;
+    ConSlp.action = ConSlp.T.NONE;
+    ConSlp.div = false;
+    ConSlp.keepasm = false;
+    ConSlp.fold = true;
+    ConSlp.gcc = false;
   }
 }
@@ -0,0 +1,245 @@
+package control;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ast.Ast;
+import lexer.Lexer;
+import lexer.ParallelLexer;
+import lexer.Token;
+import lexer.TokenBuffer;
+import parser.Parser;
+import util.Diagnostic;
+
+// Run the front end (lexer and parser) on source files, one or
+// many at a time.
+public class Driver
+{
+  // the outcome of compiling one file
+  public static class Result
+  {
+    public String fname;
+    public Ast.Program.T ast; // only meaningful without errors
+    public List<Diagnostic> errors;
+
+    public Result(String fname, Ast.Program.T ast, List<Diagnostic> errors)
+    {
+      this.fname = fname;
+      this.ast = ast;
+      this.errors = errors;
+    }
+  }
+
+  // Where the file "fname" is: relative names are taken from
+  // "dir", or from the current directory if "dir" is null.
+  static String path(String fname, File dir)
+  {
+    if (dir == null || new File(fname).isAbsolute())
+      return fname;
+    return new File(dir, fname).getPath();
+  }
+
+  // Compile one file. Errors, including a file which can not be
+  // read, end up in the result: this never aborts.
+  public static Result compile(String fname, File dir)
+  {
+    byte[] buf;
+    try {
+      buf = Lexer.readFile(path(fname, dir));
+    } catch (IOException e) {
+      List<Diagnostic> errors = new ArrayList<Diagnostic>();
+      errors.add(new Diagnostic(fname, 0, 0, "can not read the file: "
+          + e.toString()));
+      return new Result(fname, null, errors);
+    }
+    Parser parser;
+    if (Control.ConLexer.parallel) {
+      ParallelLexer lexer = new ParallelLexer(fname, buf);
+      parser = new Parser(fname, lexer.tokenize(), lexer.errors());
+    } else {
+      Lexer lexer = new Lexer(fname, buf);
+      parser = Control.ConLexer.pipe ? Parser.pipelined(lexer)
+          : new Parser(lexer);
+    }
+    Ast.Program.T ast = parser.parse();
+    List<Diagnostic> errors = parser.errors();
+    Collections.sort(errors);
+    return new Result(fname, ast, errors);
+  }
+
+  // Split the files in halves till there is one left, so that
+  // idle threads of the pool steal the other halves.
+  @SuppressWarnings("serial")
+  static class CompileTask extends RecursiveAction
+  {
+    List<String> fnames;
+    File dir;
+    Result[] results;
+    int lo, hi; // the files [lo, hi)
+
+    CompileTask(List<String> fnames, File dir, Result[] results, int lo,
+        int hi)
+    {
+      this.fnames = fnames;
+      this.dir = dir;
+      this.results = results;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (hi - lo == 1) {
+        results[lo] = compile(fnames.get(lo), dir);
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new CompileTask(fnames, dir, results, lo, mid),
+          new CompileTask(fnames, dir, results, mid, hi));
+    }
+  }
+
+  // Compile all the files on a work-stealing pool of "jobs"
+  // threads. The results are in the order of "fnames", whatever
+  // the order in which the files got compiled.
+  public static Result[] compileAll(List<String> fnames, File dir, int jobs)
+  {
+    Result[] results = new Result[fnames.size()];
+    if (fnames.isEmpty())
+      return results;
+
+    fnames = new ArrayList<String>(fnames);
+    if (jobs <= 1 || fnames.size() == 1) {
+      for (int i = 0; i < results.length; i++)
+        results[i] = compile(fnames.get(i), dir);
+      return results;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.min(jobs, fnames.size()));
+    try {
+      pool.invoke(new CompileTask(fnames, dir, results, 0,
+          results.length));
+    } finally {
+      pool.shutdown();
+    }
+    return results;
+  }
+
+  // Replace every directory in "names" by the ".java" files under
+  // it, in a sorted (hence reproducible) order. The names stay
+  // relative to "dir", as given.
+  public static List<String> expand(List<String> names, File dir)
+  {
+    List<String> fnames = new ArrayList<String>();
+    for (String name : names) {
+      if (new File(path(name, dir)).isDirectory())
+        expandDir(name, dir, fnames);
+      else
+        fnames.add(name);
+    }
+    return fnames;
+  }
+
+  private static void expandDir(String name, File dir, List<String> fnames)
+  {
+    String[] files = new File(path(name, dir)).list();
+    if (files == null)
+      return;
+    java.util.Arrays.sort(files);
+    for (String f : files) {
+      String child = new File(name, f).getPath();
+      if (new File(path(child, dir)).isDirectory())
+        expandDir(child, dir, fnames);
+      else if (f.endsWith(".java"))
+        fnames.add(child);
+    }
+  }
+
+  // Print the errors of every file, file after file in the order
+  // of "results", and return how many there are.
+  public static int report(Result[] results, PrintStream out)
+  {
+    int n = 0;
+    for (Result r : results) {
+      for (Diagnostic d : r.errors)
+        out.println(d.toString());
+      n += r.errors.size();
+    }
+    if (n > 0 || results.length > 1) {
+      String s = n + (n == 1 ? " error" : " errors");
+      if (results.length > 1)
+        s = results.length + " files, " + s;
+      out.println(s);
+    }
+    return n;
+  }
+
+  // Run the front end on the files named on the command line, as
+  // the options in "Control" ask, printing on System.out. Return
+  // the exit status.
+  public static int run(List<String> names, File dir)
+  {
+    // /////////////////////////////////////////////////////
+    // it would be helpful to be able to test the lexer
+    // independently.
+    if (Control.ConLexer.test) {
+      if (names.size() > 1) {
+        System.out.println("Error: -testlexer takes one file only");
+        return 1;
+      }
+      System.out.println("Testing the lexer. All tokens:");
+      try {
+        String fname = names.get(0);
+        byte[] buf = Lexer.readFile(path(fname, dir));
+        List<Diagnostic> errors;
+        if (Control.ConLexer.parallel) {
+          ParallelLexer lexer = new ParallelLexer(fname, buf);
+          TokenBuffer tokens = lexer.tokenize();
+          for (int i = 0; i < tokens.size() - 1; i++)
+            System.out.println(tokens.token(i).toString());
+          errors = lexer.errors();
+        } else {
+          Lexer lexer = new Lexer(fname, buf);
+          Token token = lexer.nextToken();
+          while (token.kind != Token.Kind.TOKEN_EOF) {
+            System.out.println(token.toString());
+            token = lexer.nextToken();
+          }
+          errors = lexer.errors();
+        }
+        Collections.sort(errors);
+        report(new Result[] { new Result(fname, null, errors) }, System.out);
+      } catch (Exception e) {
+        System.out.println(e.toString());
+        e.printStackTrace();
+      }
+      return 1;
+    }
+
+    // /////////////////////////////////////////////////////////
+    // normal compilation phases, on all the files at a time.
+    // Dumping the tokens makes no sense in parallel.
+    try {
+      List<String> fnames = expand(names, dir);
+      int jobs = Control.ConLexer.dump ? 1 : Control.ConDriver.jobs;
+      Result[] results = compileAll(fnames, dir, jobs);
+      if (report(results, System.out) > 0)
+        return 1;
+
+      if (Control.ConAst.dumpAst)
+        for (Result r : results)
+          System.out.print(new ast.PrettyPrint().print(r.ast));
+    } catch (Exception e) {
+      e.printStackTrace();
+      return 1;
+    }
+    return 0;
+  }
+}
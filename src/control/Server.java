@@ -0,0 +1,144 @@
+package control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Symbol;
+
+// A long-lived compiler process. A client sends it a command line
+// and gets back what the compiler would have printed, together with
+// the exit status, so that only the server pays for starting the
+// JVM and warming up the lexer and the parser.
+//
+// The protocol, over a loopback TCP connection, one request per
+// connection:
+//   client: UTF current directory, int n, n * UTF argument
+//   server: int n, n bytes of output, int exit status
+public class Server
+{
+  // The options live in static fields and the output goes to
+  // System.out, so the command lines are run one at a time (each
+  // of them is still free to use many threads).
+  private static final Object lock = new Object();
+
+  public static void serve(int port) throws IOException
+  {
+    ServerSocket server = new ServerSocket(port, 50,
+        InetAddress.getLoopbackAddress());
+    System.out.println("Tiger: compile server on port " + port);
+    while (true) {
+      Socket socket = server.accept();
+      Thread t = new Thread(() -> handle(socket), "tiger-client");
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  private static void handle(Socket socket)
+  {
+    try (Socket s = socket) {
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+
+      File dir = new File(in.readUTF());
+      String[] args = new String[in.readInt()];
+      for (int i = 0; i < args.length; i++)
+        args[i] = in.readUTF();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      int status = run(args, dir, new PrintStream(bytes, true));
+
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      out.writeInt(status);
+      out.flush();
+    } catch (IOException e) {
+      // the client went away: nothing to report to
+    }
+  }
+
+  // Run one command line with the output sent to "out".
+  private static int run(String[] args, File dir, PrintStream out)
+  {
+    synchronized (lock) {
+      PrintStream stdout = System.out;
+      PrintStream stderr = System.err;
+      System.setOut(out);
+      System.setErr(out);
+      try {
+        Control.reset();
+        // any client may connect, not only Tiger's own front end: a
+        // bad command line is an answer, not a reason to stop
+        List<String> fnames;
+        try {
+          fnames = new CommandLine().scan(args);
+        } catch (CommandLine.Abort e) {
+          return 1;
+        }
+        if (Control.ConServer.serve != -1 || Control.ConServer.client != -1
+            || Control.ConSlp.action != Control.ConSlp.T.NONE
+            || fnames.isEmpty()) {
+          System.out.println("Error: the compile server only compiles files");
+          return 1;
+        }
+        return Driver.run(fnames, dir);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        return 1;
+      } finally {
+        System.out.flush();
+        System.setOut(stdout);
+        System.setErr(stderr);
+        Control.reset();
+        // nothing of this command line is kept
+        Symbol.reset();
+      }
+    }
+  }
+
+  // Send the command line "args", less the "-client" option, to
+  // the server on "port" and print its answer. Return the exit
+  // status, or -1 if there is no server to talk to.
+  public static int forward(int port, String[] args) throws IOException
+  {
+    List<String> rest = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-client"))
+        i++;
+      else
+        rest.add(args[i]);
+    }
+
+    Socket socket;
+    try {
+      socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    } catch (ConnectException e) {
+      return -1;
+    }
+    try (Socket s = socket) {
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      out.writeUTF(new File("").getAbsolutePath());
+      out.writeInt(rest.size());
+      for (String arg : rest)
+        out.writeUTF(arg);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      System.out.write(bytes);
+      System.out.flush();
+      return in.readInt();
+    }
+  }
+}
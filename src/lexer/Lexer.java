@@ -1,337 +1,550 @@
 package lexer;
 
 import static control.Control.ConLexer.dump;
+import static control.Control.ConLexer.scalar;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import lexer.Token.Kind;
+import util.Diagnostic;
+import util.Symbol;
 
 public class Lexer
 {
   String fname; // the input file name to be compiled
-  InputStream fstream; // input stream for the above file
-  Integer curLineNum;
-  Integer curColNum;
-  int lDelimiterNum;
-  boolean isAfterDoubleSlash;
+  byte[] buf; // the whole content of the above file
+  int pos; // index of the next character to read in "buf"
+  int end; // number of valid characters in "buf"
+  int curLineNum;
+  int curColNum;
+  // skip blanks and comment bodies a word at a time (see "Words"),
+  // rather than a byte at a time
+  boolean wide;
+  // number of "/*" still open: at the start of the input, for a
+  // chunk of a file (see "ParallelLexer"), then at its end
+  int commentDepth;
 
-  public Lexer(String fname, InputStream fstream)
+  // attributes of the token just scanned
+  int tokOffset;
+  int tokLineNum;
+  int tokColNum;
+  Symbol tokSym;
+  int tokValue; // of an integer literal
+
+  // lexical errors found so far
+  List<Diagnostic> errors;
+
+  Symbol.Cache symbols;
+
+  // Load the whole source file in one go, so that the scanner
+  // can walk it with an integer cursor: lookahead and rollback
+  // are then nothing but index arithmetic.
+  public Lexer(String fname) throws IOException
+  {
+    this(fname, readFile(fname));
+  }
+
+  public Lexer(String fname, InputStream fstream) throws IOException
+  {
+    this(fname, fstream.readAllBytes());
+  }
+
+  public Lexer(String fname, byte[] buf)
+  {
+    this(fname, buf, 0, buf.length);
+  }
+
+  // the characters buf[start .. end) only, line 1 starting at "start"
+  Lexer(String fname, byte[] buf, int start, int end)
   {
     this.fname = fname;
-    this.fstream = fstream;
+    this.buf = buf;
+    this.pos = start;
+    this.end = end;
     curLineNum = 1;
     curColNum = 0;
-    lDelimiterNum = 0;
-    isAfterDoubleSlash = false;
+    wide = !scalar;
+    errors = new ArrayList<Diagnostic>();
+    symbols = new Symbol.Cache();
   }
 
-  // Discard all the characters going after "//" till end of the line.
-  private void dealWithDoubleSlash() throws Exception {
-    int c;
-    do {
-      c = this.fstream.read();
-    } while ('\n' != c);
-    curLineNum++;
-    curColNum = 0;
-    isAfterDoubleSlash = false;
+  public static byte[] readFile(String fname) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(Paths.get(fname),
+        StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException("file too large: " + fname);
+      byte[] bytes = new byte[(int) size];
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      while (bb.hasRemaining() && channel.read(bb) >= 0)
+        ;
+      return bytes;
+    }
   }
 
-  // Discard all the characters between "/*" and "*/".
-  // Delemiters can be nested.
-  private Token dealWithDelimiter() {
-    Token token = null;
-    // omit all tokens except "/*", "*/" and EOF
-    do {
-      try {
-        token = nextTokenInternal();
-      } catch (Exception e) {
-        token = null;
-      }
-    } while (null == token || 
-            (Kind.TOKEN_LDELIMITER != token.kind 
-            && Kind.TOKEN_RDELIMITER != token.kind
-            && Kind.TOKEN_EOF != token.kind));
-    return token;
+  public String fname()
+  {
+    return fname;
   }
 
-  // When called, return the next token (refer to the code "Token.java")
-  // from the input stream.
-  // Return TOKEN_EOF when reaching the end of the input stream.
-  private Token nextTokenInternal() throws Exception
+  // The lexical errors found so far. Bad characters are reported
+  // here and skipped, and scanning goes on with the rest.
+  public List<Diagnostic> errors()
   {
-    Token token;
-    int c = this.fstream.read();
-    curColNum++;
+    return errors;
+  }
 
-    if (-1 == c)
-      // The value for "lineNum" is now "null",
-      // you should modify this to an appropriate
-      // line number for the "EOF" token.
-      return new Token(Kind.TOKEN_EOF, curLineNum, curColNum);
+  // report an error on the token being scanned
+  private void error(String message)
+  {
+    errors.add(new Diagnostic(fname, tokLineNum, tokColNum, message));
+  }
 
-    // skip all kinds of "blanks"
-    while (' ' == c || '\t' == c || '\n' == c) {
-      if ('\n' == c) {
-        curLineNum++;
-        curColNum = 0;
-      }
-      c = this.fstream.read(); 
-      curColNum++;
-      // How to deal with \t ???
+  // ////////////////////////////////////////
+  // The scanner is a DFA driven by tables. A character below 128
+  // takes its class from "charClass"; the others, which MiniJava
+  // sources hardly ever hold, are classified by the Unicode methods
+  // of Character. The ASCII table is built from those same methods,
+  // so both ways agree.
+  static final int CL_OTHER = 0; // not allowed outside comments
+  static final int CL_BLANK = 1; // ' ', '\t'
+  static final int CL_NEWLINE = 2;
+  static final int CL_DIGIT = 3;
+  static final int CL_ID_START = 4; // starts and continues identifiers
+  static final int CL_ID_PART = 5; // only continues identifiers
+  static final int CL_SINGLE = 6; // a token by itself
+  static final int CL_AMP = 7; // '&'
+  static final int CL_STAR = 8; // '*'
+  static final int CL_SLASH = 9; // '/'
+  static final int CLASSES = 10;
+
+  static final byte[] charClass = new byte[128];
+
+  // the token of a character alone: of every CL_SINGLE one, and of
+  // '*'; null for '&' and '/', which must be followed by another
+  static final Kind[] single = new Kind[128];
+
+  // The transitions out of the state reached on an operator
+  // character: the token made with the next character, by the
+  // classes of both, or null if the first one stands alone.
+  static final Kind[] pairs = new Kind[CLASSES * CLASSES];
+
+  static {
+    Object[][] singles = { { '+', Kind.TOKEN_ADD }, { '=', Kind.TOKEN_ASSIGN },
+        { ',', Kind.TOKEN_COMMER }, { '.', Kind.TOKEN_DOT },
+        { '{', Kind.TOKEN_LBRACE }, { '[', Kind.TOKEN_LBRACK },
+        { '(', Kind.TOKEN_LPAREN }, { '<', Kind.TOKEN_LT },
+        { '!', Kind.TOKEN_NOT }, { '}', Kind.TOKEN_RBRACE },
+        { ']', Kind.TOKEN_RBRACK }, { ')', Kind.TOKEN_RPAREN },
+        { ';', Kind.TOKEN_SEMI }, { '-', Kind.TOKEN_SUB } };
+    for (int c = 0; c < 128; c++)
+      charClass[c] = (byte) unicodeClass(c);
+    for (Object[] s : singles) {
+      char c = (Character) s[0];
+      charClass[c] = CL_SINGLE;
+      single[c] = (Kind) s[1];
     }
-    if (-1 == c)
-      return new Token(Kind.TOKEN_EOF, curLineNum, curColNum);
-
-    switch (c) {
-    case '+':
-      token = new Token(Kind.TOKEN_ADD, curLineNum, curColNum);
-      return token;
-    case '&':
-      c = this.fstream.read();
-      if ('&' == c) {
-        token = new Token(Kind.TOKEN_AND, curLineNum, curColNum);
-        curColNum += 1;
-        return token;
-      } else {
-        curColNum++;
-        throw new Exception();
+    charClass['&'] = CL_AMP;
+    charClass['*'] = CL_STAR;
+    charClass['/'] = CL_SLASH;
+    single['*'] = Kind.TOKEN_TIMES;
+
+    pairs[CL_AMP * CLASSES + CL_AMP] = Kind.TOKEN_AND;
+    pairs[CL_STAR * CLASSES + CL_SLASH] = Kind.TOKEN_RDELIMITER;
+    pairs[CL_SLASH * CLASSES + CL_SLASH] = Kind.TOKEN_DOUBLE_SLASH;
+    pairs[CL_SLASH * CLASSES + CL_STAR] = Kind.TOKEN_LDELIMITER;
+  }
+
+  // the class of a character that is not an operator
+  private static int unicodeClass(int c)
+  {
+    if (' ' == c || '\t' == c)
+      return CL_BLANK;
+    if ('\n' == c)
+      return CL_NEWLINE;
+    if (Character.isDigit(c))
+      return CL_DIGIT;
+    if (Character.isJavaIdentifierStart(c))
+      return CL_ID_START;
+    if (Character.isJavaIdentifierPart(c))
+      return CL_ID_PART;
+    return CL_OTHER;
+  }
+
+  private static int classOf(int c)
+  {
+    return c < 128 ? charClass[c] : unicodeClass(c);
+  }
+
+  // Keyword recognition: dispatch on the length and the first
+  // (sometimes the second) character of the candidate, then compare
+  // it in place against the only keyword that can still match.
+  // Nothing is allocated unless the token is an identifier.
+  private static Kind keyword(byte[] b, int start, int len)
+  {
+    switch (len) {
+    case 2:
+      return match(b, start, "if", Kind.TOKEN_IF);
+    case 3:
+      switch (b[start]) {
+      case 'i':
+        return match(b, start, "int", Kind.TOKEN_INT);
+      case 'n':
+        return match(b, start, "new", Kind.TOKEN_NEW);
+      case 'o':
+        return match(b, start, "out", Kind.TOKEN_OUT);
+      default:
+        return null;
+      }
+    case 4:
+      switch (b[start]) {
+      case 'e':
+        return match(b, start, "else", Kind.TOKEN_ELSE);
+      case 'm':
+        return match(b, start, "main", Kind.TOKEN_MAIN);
+      case 't':
+        if ('h' == b[start + 1])
+          return match(b, start, "this", Kind.TOKEN_THIS);
+        return match(b, start, "true", Kind.TOKEN_TRUE);
+      case 'v':
+        return match(b, start, "void", Kind.TOKEN_VOID);
+      default:
+        return null;
       }
-    case '=':
-      token = new Token(Kind.TOKEN_ASSIGN, curLineNum, curColNum);
-      return token;
-    case ',':
-      token = new Token(Kind.TOKEN_COMMER, curLineNum, curColNum);
-      return token;
-    case '.':
-      token = new Token(Kind.TOKEN_DOT, curLineNum, curColNum);
-      return token;
-    case '{':
-      token = new Token(Kind.TOKEN_LBRACE, curLineNum, curColNum);
-      return token;
-    case '[':
-      token = new Token(Kind.TOKEN_LBRACK, curLineNum, curColNum);
-      return token;
-    case '(':
-      token = new Token(Kind.TOKEN_LPAREN, curLineNum, curColNum);
-      return token;
-    case '<':
-      token = new Token(Kind.TOKEN_LT, curLineNum, curColNum);
-      return token;
-    case '!':
-      token = new Token(Kind.TOKEN_NOT, curLineNum, curColNum);
-      return token;
-    case '}':
-      token = new Token(Kind.TOKEN_RBRACE, curLineNum, curColNum);
-      return token;
-    case ']':
-      token = new Token(Kind.TOKEN_RBRACK, curLineNum, curColNum);
-      return token;
-    case ')':
-      token = new Token(Kind.TOKEN_RPAREN, curLineNum, curColNum);
-      return token;
-    case ';':
-      token = new Token(Kind.TOKEN_SEMI, curLineNum, curColNum);
-      return token;
-    case '-':
-      token = new Token(Kind.TOKEN_SUB, curLineNum, curColNum);
-      return token;
-    case '*':
-      c = this.fstream.read();
-      this.fstream.mark(1);
-      if ('/' == c) {
-        token = new Token(Kind.TOKEN_RDELIMITER, curLineNum, curColNum);
-        curColNum += 1;
-        return token;
-      } else {
-        // roll back
-        this.fstream.reset();
-        token = new Token(Kind.TOKEN_TIMES, curLineNum, curColNum);
-        return token;
+    case 5:
+      switch (b[start]) {
+      case 'c':
+        return match(b, start, "class", Kind.TOKEN_CLASS);
+      case 'f':
+        return match(b, start, "false", Kind.TOKEN_FALSE);
+      case 'w':
+        return match(b, start, "while", Kind.TOKEN_WHILE);
+      default:
+        return null;
       }
-    case '/':
-      c = this.fstream.read();
-      if ('/' == c) {
-        token = new Token(Kind.TOKEN_DOUBLE_SLASH, curLineNum, curColNum);
-        curColNum += 1;
-        return token;
-      } else if ('*' == c) {
-        token = new Token(Kind.TOKEN_LDELIMITER, curLineNum, curColNum);
-        curColNum += 1;
-        return token;
-      } else {
-        throw new Exception("After '/' is " + (char)c 
-                + ", at line" + curLineNum + ", colum " + curColNum);
+    case 6:
+      switch (b[start]) {
+      case 'l':
+        return match(b, start, "length", Kind.TOKEN_LENGTH);
+      case 'p':
+        return match(b, start, "public", Kind.TOKEN_PUBLIC);
+      case 'r':
+        return match(b, start, "return", Kind.TOKEN_RETURN);
+      case 's':
+        return match(b, start, "static", Kind.TOKEN_STATIC);
+      case 'S':
+        if ('t' == b[start + 1])
+          return match(b, start, "String", Kind.TOKEN_STRING);
+        return match(b, start, "System", Kind.TOKEN_SYSTEM);
+      default:
+        return null;
+      }
+    case 7:
+      switch (b[start]) {
+      case 'b':
+        return match(b, start, "boolean", Kind.TOKEN_BOOLEAN);
+      case 'e':
+        return match(b, start, "extends", Kind.TOKEN_EXTENDS);
+      case 'p':
+        return match(b, start, "println", Kind.TOKEN_PRINTLN);
+      default:
+        return null;
       }
     default:
-      // Lab 1, exercise 2: supply missing code to
-      // lex other kinds of tokens.
-      // Hint: think carefully about the basic
-      // data structure and algorithms. The code
-      // is not that much and may be less than 50 lines. If you
-      // find you are writing a lot of code, you
-      // are on the wrong way.
-      if (Character.isDigit(c)) {
-        StringBuilder sb = new StringBuilder();
-        do {
-          sb.append((char)c);
-          this.fstream.mark(1);
-          c = this.fstream.read();
-        }
-        while(Character.isDigit(c));
-        // rollback
-        this.fstream.reset();
-        if (sb.toString().matches("0|([1-9][0-9]*)")) {
-          token = new Token(Kind.TOKEN_NUM, curLineNum, curColNum, sb.toString());
-          curColNum += sb.toString().length() - 1;
-          return token;
-        } else {
-          curColNum += sb.toString().length() - 1;
-          throw new Exception();
-        }
-      } else if (Character.isJavaIdentifierStart(c)) {
-        StringBuilder sb = new StringBuilder();
-        do {
-          sb.append((char)c);
-          this.fstream.mark(1);
-          c = this.fstream.read();
-        }
-        while(Character.isJavaIdentifierPart(c));
-        // rollback
-        this.fstream.reset();
-        if (sb.toString().equals("boolean")) {
-          token = new Token(Kind.TOKEN_BOOLEAN, curLineNum, curColNum);
-          curColNum += 6;
-          return token;
-        } else if (sb.toString().equals("class")) {
-          token = new Token(Kind.TOKEN_CLASS, curLineNum, curColNum);
-          curColNum += 4;
-          return token;
-        } else if (sb.toString().equals("else")) {
-          token = new Token(Kind.TOKEN_ELSE, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("extends")) {
-          token = new Token(Kind.TOKEN_EXTENDS, curLineNum, curColNum);
-          curColNum += 6;
-          return token;
-        } else if (sb.toString().equals("false")) {
-          token = new Token(Kind.TOKEN_FALSE, curLineNum, curColNum);
-          curColNum += 4;
-          return token;
-        } else if (sb.toString().equals("if")) {
-          token = new Token(Kind.TOKEN_IF, curLineNum, curColNum);
-          curColNum += 1;
-          return token;
-        } else if (sb.toString().equals("int")) {
-          token = new Token(Kind.TOKEN_INT, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("length")) {
-          token = new Token(Kind.TOKEN_LENGTH, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("main")) {
-          token = new Token(Kind.TOKEN_MAIN, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("new")) {
-          token = new Token(Kind.TOKEN_NEW, curLineNum, curColNum);
-          curColNum += 2;
-          return token;
-        } else if (sb.toString().equals("out")) {
-          token = new Token(Kind.TOKEN_OUT, curLineNum, curColNum);
-          curColNum += 2;
-          return token;
-        } else if (sb.toString().equals("println")) {
-          token = new Token(Kind.TOKEN_PRINTLN, curLineNum, curColNum);
-          curColNum += 6;
-          return token;
-        } else if (sb.toString().equals("public")) {
-          token = new Token(Kind.TOKEN_PUBLIC, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("return")) {
-          token = new Token(Kind.TOKEN_RETURN, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("static")) {
-          token = new Token(Kind.TOKEN_STATIC, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("String")) {
-          token = new Token(Kind.TOKEN_STRING, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("System")) {
-          token = new Token(Kind.TOKEN_SYSTEM, curLineNum, curColNum);
-          curColNum += 5;
-          return token;
-        } else if (sb.toString().equals("this")) {
-          token = new Token(Kind.TOKEN_THIS, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("true")) {
-          token = new Token(Kind.TOKEN_TRUE, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("void")) {
-          token = new Token(Kind.TOKEN_VOID, curLineNum, curColNum);
-          curColNum += 3;
-          return token;
-        } else if (sb.toString().equals("while")) {
-          token = new Token(Kind.TOKEN_WHILE, curLineNum, curColNum);
-          curColNum += 4;
-          return token;
-        } else {
-          token = new Token(Kind.TOKEN_ID, curLineNum, curColNum, sb.toString());
-          curColNum += sb.toString().length() - 1;
-          return token;
-        }
-      } else {
-        throw new Exception("Current character is \"" + (char)c
-                + "\", at line" + curLineNum);
+      return null;
+    }
+  }
+
+  // the first character has been checked by the caller
+  private static Kind match(byte[] b, int start, String keyword, Kind kind)
+  {
+    for (int i = keyword.length() - 1; i > 0; i--)
+      if (keyword.charAt(i) != b[start + i])
+        return null;
+    return kind;
+  }
+
+  // Discard all the characters going after "//" till end of the line.
+  private void dealWithDoubleSlash() {
+    if (wide)
+      pos = Words.nextNewline(buf, pos, end);
+    else
+      while (pos < end && '\n' != buf[pos])
+        pos++;
+    if (pos < end) {
+      pos++;
+      curLineNum++;
+      curColNum = 0;
+    }
+  }
+
+  // Discard all the characters between "/*" and "*/", the opening
+  // "/*" having just been read. Delimiters can be nested, so "depth"
+  // counts the ones still open. This is a plain loop over the raw
+  // characters: nothing inside a comment is ever tokenized.
+  // An unterminated comment runs till the end of the input, and
+  // leaves the depth it got to in "commentDepth".
+  private void dealWithDelimiter(int depth) {
+    byte[] b = buf;
+    int p = pos;
+    int line = curLineNum;
+    int col = curColNum;
+
+    while (p < end) {
+      if (wide) {
+        // only a '*' or a '/' can start a delimiter: jump to the
+        // next one, counting the lines on the way
+        int q = Words.nextDelimiter(b, p, end);
+        int lines = Words.countNewlines(b, p, q);
+        if (lines > 0) {
+          line += lines;
+          col = q - 1 - Words.lastNewline(b, p, q);
+        } else
+          col += q - p;
+        p = q;
+        if (p == end)
+          break;
+      }
+      byte c = b[p++];
+      col++;
+      if ('\n' == c) {
+        line++;
+        col = 0;
+      } else if ('*' == c && p < end && '/' == b[p]) {
+        p++;
+        col++;
+        if (--depth == 0)
+          break;
+      } else if ('/' == c && p < end && '*' == b[p]) {
+        p++;
+        col++;
+        depth++;
       }
     }
+    pos = p;
+    curLineNum = line;
+    curColNum = col;
+    commentDepth = depth;
   }
 
-  public Token nextToken()
+  // When called, scan the next token (refer to the code "Token.java")
+  // from the input, return its kind and leave its other attributes
+  // in the "tok*" fields.
+  // Return TOKEN_EOF when reaching the end of the input stream,
+  // and null after reporting a lexical error.
+  private Kind nextKindInternal()
   {
-    Token t = null;
+    byte[] b = buf;
+    int p = pos;
+    int col = curColNum;
+    int c = -1;
+    int cl = CL_OTHER;
 
-    if (isAfterDoubleSlash) {
-      try {
-        dealWithDoubleSlash();
-      } catch (Exception e) {
-        e.printStackTrace();
-        System.exit(1);
+    // skip all kinds of "blanks"
+    while (p < end) {
+      c = b[p] & 0xff;
+      cl = classOf(c);
+      if (CL_BLANK == cl && wide) {
+        int q = Words.skipBlanks(b, p, end);
+        col += q - p;
+        p = q;
+        continue;
       }
+      if (CL_BLANK == cl)
+        col++;
+      else if (CL_NEWLINE == cl) {
+        curLineNum++;
+        col = 0;
+      } else
+        break;
+      p++;
+      // How to deal with \t ???
+    }
+
+    // the token starts here, at colum "col + 1"
+    tokOffset = p;
+    tokLineNum = curLineNum;
+    tokColNum = col + 1;
+    tokSym = null;
+    if (p >= end) {
+      pos = p;
+      curColNum = col + 1;
+      return Kind.TOKEN_EOF;
     }
 
-    if (lDelimiterNum > 0) {
-      t = dealWithDelimiter();
-    } else {
-      try {
-        t = this.nextTokenInternal();
-      } catch (Exception e) {
-        e.printStackTrace();
-        System.exit(1);
+    int start = p++;
+    Kind kind;
+    switch (cl) {
+    case CL_SINGLE:
+      kind = single[c];
+      break;
+    case CL_AMP:
+    case CL_STAR:
+    case CL_SLASH:
+      kind = (p < end) ? pairs[cl * CLASSES + classOf(b[p] & 0xff)] : null;
+      if (kind != null)
+        p++;
+      else
+        kind = single[c];
+      break;
+    case CL_DIGIT: {
+      // The value is computed along with the scan, checked for a
+      // leading zero and for overflow; the text is only made into
+      // a String for an error message.
+      long value = c - '0';
+      while (p < end && CL_DIGIT == classOf(c = b[p] & 0xff)) {
+        p++;
+        if (value <= Integer.MAX_VALUE)
+          value = value * 10 + (c - '0');
       }
+      pos = p;
+      curColNum = col + p - start;
+      int len = p - start;
+      if (b[start] == '0' && len > 1) {
+        error("bad integer literal: " + new String(b, start, len,
+            StandardCharsets.ISO_8859_1));
+        return null;
+      }
+      if (value > Integer.MAX_VALUE) {
+        error("integer literal too large: " + new String(b, start, len,
+            StandardCharsets.ISO_8859_1));
+        return null;
+      }
+      tokValue = (int) value;
+      return Kind.TOKEN_NUM;
+    }
+    case CL_ID_START: {
+      // digits, identifier starts and parts are consecutive classes
+      while (p < end && (cl = classOf(b[p] & 0xff)) >= CL_DIGIT
+          && cl <= CL_ID_PART)
+        p++;
+      int len = p - start;
+      kind = keyword(b, start, len);
+      if (kind == null) {
+        kind = Kind.TOKEN_ID;
+        tokSym = symbols.intern(b, start, len);
+      }
+      break;
+    }
+    default:
+      kind = null;
+      break;
     }
+    pos = p;
+    curColNum = col + p - start;
+    if (kind == null) {
+      if ('&' == c)
+        error("Current character is \"&\", expects \"&&\"");
+      else if ('/' == c)
+        error("Current character is \"/\", expects \"//\" or \"/*\"");
+      else
+        error("Current character is \"" + (char) c + "\"");
+    }
+    return kind;
+  }
+
+  // Scan the next token which is not part of a comment, and
+  // return its kind.
+  private Kind nextKind()
+  {
+    for (;;) {
+      Kind kind = this.nextKindInternal();
+      if (null == kind)
+        continue;
 
-    // Suppress the output of double slash and delimiter.
-    if (Kind.TOKEN_LDELIMITER == t.kind) {
-      lDelimiterNum++;
-      return nextToken();
-    } else if (Kind.TOKEN_RDELIMITER == t.kind) {
-      lDelimiterNum--;
-      return nextToken();
-    } else if (Kind.TOKEN_DOUBLE_SLASH == t.kind) {
-      isAfterDoubleSlash = true;
-      return nextToken();
+      // Suppress the output of double slash and delimiter.
+      switch (kind) {
+      case TOKEN_LDELIMITER:
+        dealWithDelimiter(1);
+        break;
+      case TOKEN_DOUBLE_SLASH:
+        dealWithDoubleSlash();
+        break;
+      case TOKEN_RDELIMITER:
+        // a "*/" not closing anything, ignore it
+        break;
+      default:
+        return kind;
+      }
     }
+  }
+
+  public Token nextToken()
+  {
+    Kind kind = nextKind();
+    Token t;
+    if (Kind.TOKEN_NUM == kind)
+      t = new Token(kind, tokLineNum, tokColNum, tokValue);
+    else
+      t = new Token(kind, tokLineNum, tokColNum, tokSym);
 
     if (dump)
       System.out.println(t.toString());
     return t;
   }
+
+  // Lex the whole input into a TokenBuffer, the last token
+  // of which is TOKEN_EOF.
+  public TokenBuffer tokenize()
+  {
+    return tokenize(dump);
+  }
+
+  // the same, dumping the tokens if "print"
+  TokenBuffer tokenize(boolean print)
+  {
+    TokenBuffer tokens = new TokenBuffer((end - pos) / 4);
+    Kind kind;
+
+    if (commentDepth > 0)
+      dealWithDelimiter(commentDepth);
+    do {
+      kind = nextKind();
+      if (Kind.TOKEN_NUM == kind)
+        tokens.add(kind, tokOffset, tokLineNum, tokColNum, tokValue);
+      else
+        tokens.add(kind, tokOffset, tokLineNum, tokColNum, tokSym);
+      if (print)
+        System.out.println(tokens.token(tokens.size() - 1).toString());
+    } while (Kind.TOKEN_EOF != kind);
+    return tokens;
+  }
+
+  // Lex the whole input into "ring", for a parser on another thread
+  // to take the tokens as they come, and close it. A failure of the
+  // lexer goes to the parser through the ring too.
+  public void tokenize(TokenRing ring)
+  {
+    Throwable failure = null;
+    Kind kind;
+
+    try {
+      do {
+        kind = nextKind();
+        if (Kind.TOKEN_NUM == kind)
+          ring.put(kind, tokLineNum, tokColNum, tokValue);
+        else
+          ring.put(kind, tokLineNum, tokColNum, tokSym);
+        if (dump) {
+          Token t = (Kind.TOKEN_NUM == kind) ? new Token(kind, tokLineNum,
+              tokColNum, tokValue) : new Token(kind, tokLineNum, tokColNum,
+              tokSym);
+          System.out.println(t.toString());
+        }
+      } while (Kind.TOKEN_EOF != kind);
+    } catch (Throwable e) {
+      failure = e;
+    } finally {
+      ring.close(failure);
+    }
+  }
 }
@@ -0,0 +1,169 @@
+package lexer;
+
+import static control.Control.ConLexer.dump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import util.Diagnostic;
+
+// Lex one big file on several threads. The file is cut into chunks
+// at line boundaries, and every chunk is lexed by a Lexer of its
+// own, on the fork/join pool, as if it started a file: line 1, not
+// inside a comment.
+//
+// No token spans a newline, and a "//" comment ends at one, so the
+// guess is right unless a "/*" comment runs over the cut. Once all
+// the chunks are done, they are checked in order: a chunk whose
+// predecessor ended inside a comment (nested ones included) is
+// lexed again, starting at that depth; this is rare, and sequential.
+// The tokens and the errors are then stitched together, in parallel
+// again, their line numbers moved by the lines of the chunks before.
+// The colums need no fixing, a chunk starting a line.
+//
+// The tokens and the errors are the same as those of one Lexer on
+// the whole file.
+public class ParallelLexer
+{
+  public static final int CHUNK = 1 << 20;
+
+  String fname;
+  byte[] buf;
+  int chunkSize;
+  List<Diagnostic> errors;
+
+  public ParallelLexer(String fname, byte[] buf)
+  {
+    this(fname, buf, CHUNK);
+  }
+
+  // chunks of about "chunkSize" bytes, up to the end of a line
+  public ParallelLexer(String fname, byte[] buf, int chunkSize)
+  {
+    if (chunkSize < 1)
+      throw new IllegalArgumentException("bad chunk size: " + chunkSize);
+    this.fname = fname;
+    this.buf = buf;
+    this.chunkSize = chunkSize;
+    this.errors = new ArrayList<Diagnostic>();
+  }
+
+  public String fname()
+  {
+    return fname;
+  }
+
+  // the lexical errors, once tokenize() is done
+  public List<Diagnostic> errors()
+  {
+    return errors;
+  }
+
+  // the start of every chunk, and the end of the file last
+  private int[] split()
+  {
+    int[] starts = new int[16];
+    int n = 0;
+    int p = 0;
+    do {
+      if (n == starts.length)
+        starts = Arrays.copyOf(starts, 2 * n);
+      starts[n++] = p;
+      if (buf.length - p <= chunkSize)
+        break;
+      p = Words.nextNewline(buf, p + chunkSize - 1, buf.length) + 1;
+    } while (p < buf.length);
+    starts = Arrays.copyOf(starts, n + 1);
+    starts[n] = buf.length;
+    return starts;
+  }
+
+  // Run "f" on the chunks [lo, hi), splitting them in halves till
+  // there is one left, as the driver does with files.
+  @SuppressWarnings("serial")
+  static class ForEach extends RecursiveAction
+  {
+    IntConsumer f;
+    int lo, hi;
+
+    ForEach(IntConsumer f, int lo, int hi)
+    {
+      this.f = f;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (hi - lo == 1) {
+        f.accept(lo);
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new ForEach(f, lo, mid), new ForEach(f, mid, hi));
+    }
+  }
+
+  // Lex the whole input into a TokenBuffer, the last token of which
+  // is TOKEN_EOF, as Lexer.tokenize() does.
+  public TokenBuffer tokenize()
+  {
+    int[] starts = split();
+    int n = starts.length - 1;
+    Lexer[] lexers = new Lexer[n];
+    TokenBuffer[] parts = new TokenBuffer[n];
+    new ForEach(i -> {
+      lexers[i] = new Lexer(fname, buf, starts[i], starts[i + 1]);
+      parts[i] = lexers[i].tokenize(false);
+    }, 0, n).invoke();
+
+    // the chunks starting inside a comment, again
+    int depth = 0;
+    for (int i = 0; i < n; i++) {
+      if (depth > 0) {
+        lexers[i] = new Lexer(fname, buf, starts[i], starts[i + 1]);
+        lexers[i].commentDepth = depth;
+        parts[i] = lexers[i].tokenize(false);
+      }
+      depth = lexers[i].commentDepth;
+    }
+
+    // Where the tokens of each chunk go, and the lines before it.
+    // Every chunk but the last one ends with a TOKEN_EOF to drop.
+    int[] at = new int[n + 1];
+    int[] lines = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      at[i + 1] = at[i] + parts[i].size - (i == n - 1 ? 0 : 1);
+      lines[i + 1] = lines[i] + lexers[i].curLineNum - 1;
+      for (Diagnostic d : lexers[i].errors()) {
+        d.lineNum += lines[i];
+        errors.add(d);
+      }
+    }
+    TokenBuffer tokens = parts[0];
+    if (n > 1) {
+      TokenBuffer whole = new TokenBuffer(at[n]);
+      new ForEach(i -> {
+        TokenBuffer part = parts[i];
+        int count = at[i + 1] - at[i];
+        System.arraycopy(part.kinds, 0, whole.kinds, at[i], count);
+        System.arraycopy(part.offsets, 0, whole.offsets, at[i], count);
+        System.arraycopy(part.syms, 0, whole.syms, at[i], count);
+        long shift = (long) lines[i] << 32;
+        for (int k = 0; k < count; k++)
+          whole.positions[at[i] + k] = part.positions[k] + shift;
+      }, 0, n).invoke();
+      whole.size = at[n];
+      tokens = whole;
+    }
+
+    if (dump)
+      for (int i = 0; i < tokens.size; i++)
+        System.out.println(tokens.token(i).toString());
+    return tokens;
+  }
+}
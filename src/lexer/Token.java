@@ -1,5 +1,7 @@
 package lexer;
 
+import util.Symbol;
+
 public class Token
 {
   // Lab 1, exercise 1: read the MiniJava specification
@@ -62,35 +64,48 @@ public class Token
 
   public Kind kind; // kind of the token
   public String lexeme; // extra lexeme for this token, if any
-  public Integer lineNum; // on which line of the source file this token appears
-  public Integer colNum; // on which colum of the source file this token appears
+  public Symbol sym; // interned lexeme of identifiers
+  public int value; // value of integer literals
+  public int lineNum; // on which line of the source file this token appears
+  public int colNum; // on which colum of the source file this token appears
 
   // Some tokens don't come with lexeme but 
   // others do.
-  public Token(Kind kind, Integer lineNum, Integer colNum)
+  public Token(Kind kind, int lineNum, int colNum)
   {
     this.kind = kind;
     this.lineNum = lineNum;
     this.colNum = colNum;
   }
 
-  public Token(Kind kind, Integer lineNum, Integer colNum, String lexeme)
+  public Token(Kind kind, int lineNum, int colNum, String lexeme)
   {
     this(kind, lineNum, colNum);
     this.lexeme = lexeme;
   }
 
+  // Identifiers share one interned lexeme per distinct spelling.
+  public Token(Kind kind, int lineNum, int colNum, Symbol sym)
+  {
+    this(kind, lineNum, colNum, sym == null ? null : sym.name);
+    this.sym = sym;
+  }
+
+  // An integer literal keeps its value, checked by the lexer; its
+  // spelling, having no leading zero, is the value's.
+  public Token(Kind kind, int lineNum, int colNum, int value)
+  {
+    this(kind, lineNum, colNum, Integer.toString(value));
+    this.value = value;
+  }
+
   @Override
   public String toString()
   {
     String s;
 
-    // to check that the "lineNum" field has been properly set.
-    if (this.lineNum == null || this.colNum == null)
-      new util.Todo();
-
     s = ": " + ((this.lexeme == null) ? "<NONE>" : this.lexeme) + " : at line "
-        + this.lineNum.toString() + ", colum " + this.colNum.toString();
+        + this.lineNum + ", colum " + this.colNum;
     return this.kind.toString() + s;
   }
 }
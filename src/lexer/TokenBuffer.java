@@ -0,0 +1,125 @@
+package lexer;
+
+import lexer.Token.Kind;
+import util.Symbol;
+
+// The token stream in a compact, struct-of-arrays form: a token is
+// just an index, and its attributes live in parallel primitive
+// arrays, so producing and consuming tokens allocates nothing.
+// "Token" objects are only built on demand, by "token(i)", for
+// dumps and error messages.
+public class TokenBuffer
+{
+  private static final Kind[] kindOf = Kind.values();
+
+  byte[] kinds; // Kind.ordinal() of each token
+  int[] offsets; // index of its first character in the source
+  long[] positions; // line << 32 | colum
+  int[] syms; // Symbol id of identifiers, value of integer literals,
+              // -1 otherwise
+  int size;
+
+  public TokenBuffer()
+  {
+    this(1024);
+  }
+
+  public TokenBuffer(int capacity)
+  {
+    if (capacity < 16)
+      capacity = 16;
+    kinds = new byte[capacity];
+    offsets = new int[capacity];
+    positions = new long[capacity];
+    syms = new int[capacity];
+    size = 0;
+  }
+
+  public void add(Kind kind, int offset, int lineNum, int colNum, Symbol sym)
+  {
+    if (size == kinds.length)
+      grow();
+    kinds[size] = (byte) kind.ordinal();
+    offsets[size] = offset;
+    positions[size] = ((long) lineNum << 32) | (colNum & 0xffffffffL);
+    syms[size] = (sym == null) ? -1 : sym.id;
+    size++;
+  }
+
+  // an integer literal, with its value
+  public void add(Kind kind, int offset, int lineNum, int colNum, int value)
+  {
+    add(kind, offset, lineNum, colNum, null);
+    syms[size - 1] = value;
+  }
+
+  private void grow()
+  {
+    int n = kinds.length * 2;
+    kinds = java.util.Arrays.copyOf(kinds, n);
+    offsets = java.util.Arrays.copyOf(offsets, n);
+    positions = java.util.Arrays.copyOf(positions, n);
+    syms = java.util.Arrays.copyOf(syms, n);
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public Kind kind(int i)
+  {
+    return kindOf[kinds[i]];
+  }
+
+  public int offset(int i)
+  {
+    return offsets[i];
+  }
+
+  public int lineNum(int i)
+  {
+    return lineNum(positions[i]);
+  }
+
+  public int colNum(int i)
+  {
+    return colNum(positions[i]);
+  }
+
+  // line and colum packed in a long, as stored in "positions"
+  public long position(int i)
+  {
+    return positions[i];
+  }
+
+  public static int lineNum(long position)
+  {
+    return (int) (position >>> 32);
+  }
+
+  public static int colNum(long position)
+  {
+    return (int) position;
+  }
+
+  public Symbol sym(int i)
+  {
+    if (kinds[i] == Kind.TOKEN_NUM.ordinal())
+      return null;
+    return syms[i] < 0 ? null : Symbol.get(syms[i]);
+  }
+
+  // the value of an integer literal
+  public int value(int i)
+  {
+    return syms[i];
+  }
+
+  public Token token(int i)
+  {
+    if (kinds[i] == Kind.TOKEN_NUM.ordinal())
+      return new Token(kind(i), lineNum(i), colNum(i), value(i));
+    return new Token(kind(i), lineNum(i), colNum(i), sym(i));
+  }
+}
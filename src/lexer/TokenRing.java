@@ -0,0 +1,172 @@
+package lexer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.LockSupport;
+
+import lexer.Token.Kind;
+import util.Symbol;
+
+// The tokens going from a lexer on one thread to a parser on
+// another, through a ring of a fixed capacity: the lexer is held up
+// when the parser falls that far behind, so that the memory taken
+// does not grow with the file. The attributes of a token live in
+// parallel arrays, as in "TokenBuffer".
+//
+// There is one producer and one consumer, and no lock. Each side
+// keeps its own cursor in a plain field, and publishes it to the
+// other through a volatile one a batch of tokens at a time, or
+// before it waits; it reads the other side's cursor only when it
+// runs out of tokens, or of room.
+public class TokenRing
+{
+  public static final int CAPACITY = 1 << 16;
+  static final int BATCH = 1 << 10;
+
+  private static final Kind[] kindOf = Kind.values();
+
+  private final byte[] kinds;
+  private final long[] positions; // line << 32 | colum
+  private final int[] syms; // as in "TokenBuffer"
+  private final int mask;
+
+  // the producer's side
+  private long tail; // the count of tokens put
+  private long headSeen; // the consumer's "head", as last read
+
+  // the consumer's side
+  private long head; // the count of tokens taken
+  private long tailSeen; // the producer's "tail", as last read
+  private int last; // the slot of the token taken last
+  private boolean ended; // TOKEN_EOF has been taken
+
+  // what either side has published to the other
+  private volatile long publishedTail;
+  private volatile long publishedHead;
+  private volatile boolean closed; // the producer is done, or failed
+  private volatile Throwable failure; // why, if it failed
+  private volatile boolean cancelled; // the consumer is gone
+
+  // "capacity" is a power of 2, no smaller than two batches
+  public TokenRing(int capacity)
+  {
+    if (capacity < 2 * BATCH || (capacity & (capacity - 1)) != 0)
+      throw new IllegalArgumentException("bad capacity: " + capacity);
+    kinds = new byte[capacity];
+    positions = new long[capacity];
+    syms = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  // spin a little, then give the processor away
+  private static void pause(int rounds)
+  {
+    if (rounds < 64)
+      Thread.onSpinWait();
+    else if (rounds < 1024)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(100000);
+  }
+
+  // ////////////////////////////////////////
+  // the producer: put() every token, TOKEN_EOF last, then close()
+  private void add(Kind kind, int lineNum, int colNum, int sym)
+  {
+    if (tail - headSeen == kinds.length) {
+      publishedTail = tail;
+      int rounds = 0;
+      while (tail - (headSeen = publishedHead) == kinds.length) {
+        if (cancelled)
+          throw new CancellationException();
+        pause(rounds++);
+      }
+    }
+    int i = (int) tail & mask;
+    kinds[i] = (byte) kind.ordinal();
+    positions[i] = ((long) lineNum << 32) | (colNum & 0xffffffffL);
+    syms[i] = sym;
+    tail++;
+    if ((tail & (BATCH - 1)) == 0)
+      publishedTail = tail;
+  }
+
+  public void put(Kind kind, int lineNum, int colNum, Symbol sym)
+  {
+    add(kind, lineNum, colNum, (sym == null) ? -1 : sym.id);
+  }
+
+  // an integer literal, with its value
+  public void put(Kind kind, int lineNum, int colNum, int value)
+  {
+    add(kind, lineNum, colNum, value);
+  }
+
+  // no more tokens; "failure" is why, if the lexer failed
+  public void close(Throwable failure)
+  {
+    this.failure = failure;
+    publishedTail = tail;
+    closed = true;
+  }
+
+  // ////////////////////////////////////////
+  // the consumer: take() the tokens, which stays on TOKEN_EOF
+  public int take()
+  {
+    if (ended)
+      return last;
+    if (head == tailSeen) {
+      publishedHead = head;
+      int rounds = 0;
+      while (head == (tailSeen = publishedTail)) {
+        if (closed && head == (tailSeen = publishedTail))
+          throw new IllegalStateException("the lexer failed", failure);
+        pause(rounds++);
+      }
+    }
+    // the slots before this one are free
+    if ((head & (BATCH - 1)) == 0)
+      publishedHead = head;
+    last = (int) head & mask;
+    head++;
+    ended = kinds[last] == Kind.TOKEN_EOF.ordinal();
+    return last;
+  }
+
+  public Kind kind(int i)
+  {
+    return kindOf[kinds[i]];
+  }
+
+  public long position(int i)
+  {
+    return positions[i];
+  }
+
+  public Symbol sym(int i)
+  {
+    if (kinds[i] == Kind.TOKEN_NUM.ordinal())
+      return null;
+    return syms[i] < 0 ? null : Symbol.get(syms[i]);
+  }
+
+  public int value(int i)
+  {
+    return syms[i];
+  }
+
+  // Wait till the producer is done: whatever it did before close()
+  // (report errors, say) is then seen by the consumer.
+  public void awaitClosed()
+  {
+    int rounds = 0;
+    while (!closed)
+      pause(rounds++);
+  }
+
+  // the consumer stops taking tokens: let the producer go
+  public void cancel()
+  {
+    cancelled = true;
+  }
+}
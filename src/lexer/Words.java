@@ -0,0 +1,124 @@
+package lexer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// Searches over the source bytes a word (8 bytes) at a time, for the
+// long runs the lexer does not tokenize: indentation, and the bodies
+// of comments. A word is loaded as one little endian long, and every
+// byte of it is compared at once with the usual bit tricks; the few
+// bytes left at the end of the range go one at a time.
+//
+// eq(w, c) sets the high bit of exactly the bytes of "w" equal to
+// "c" (none borrows from its neighbour, unlike the cheaper "has a
+// zero byte" test), so that the matches can also be counted, and the
+// first and the last one located.
+final class Words
+{
+  private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(
+      long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long ONES = 0x0101010101010101L;
+
+  private static final long SPACES = ' ' * ONES;
+  private static final long TABS = '\t' * ONES;
+  private static final long NEWLINES = '\n' * ONES;
+  private static final long STARS = '*' * ONES;
+  private static final long SLASHES = '/' * ONES;
+
+  private Words()
+  {
+  }
+
+  private static long word(byte[] b, int p)
+  {
+    return (long) LONG.get(b, p);
+  }
+
+  // the high bit of each byte of "w" equal to the byte of "pattern"
+  private static long eq(long w, long pattern)
+  {
+    long t = w ^ pattern;
+    return ~(((t & LOWS) + LOWS) | t | LOWS);
+  }
+
+  // the index of the byte of the lowest high bit of "mask", from "p"
+  private static int first(int p, long mask)
+  {
+    return p + (Long.numberOfTrailingZeros(mask) >>> 3);
+  }
+
+  // the first index from "p" on of a byte that is neither ' ' nor
+  // '\t', or "end"
+  static int skipBlanks(byte[] b, int p, int end)
+  {
+    for (; p + 8 <= end; p += 8) {
+      long w = word(b, p);
+      long m = ~(eq(w, SPACES) | eq(w, TABS)) & HIGHS;
+      if (m != 0)
+        return first(p, m);
+    }
+    while (p < end && (' ' == b[p] || '\t' == b[p]))
+      p++;
+    return p;
+  }
+
+  // the first index from "p" on of a '\n', or "end"
+  static int nextNewline(byte[] b, int p, int end)
+  {
+    for (; p + 8 <= end; p += 8) {
+      long m = eq(word(b, p), NEWLINES);
+      if (m != 0)
+        return first(p, m);
+    }
+    while (p < end && '\n' != b[p])
+      p++;
+    return p;
+  }
+
+  // the first index from "p" on of a '*' or a '/', which may be part
+  // of a comment delimiter, or "end"
+  static int nextDelimiter(byte[] b, int p, int end)
+  {
+    for (; p + 8 <= end; p += 8) {
+      long w = word(b, p);
+      long m = eq(w, STARS) | eq(w, SLASHES);
+      if (m != 0)
+        return first(p, m);
+    }
+    while (p < end && '*' != b[p] && '/' != b[p])
+      p++;
+    return p;
+  }
+
+  // the number of '\n' from "from" to "to"
+  static int countNewlines(byte[] b, int from, int to)
+  {
+    int n = 0;
+    int p = from;
+    for (; p + 8 <= to; p += 8)
+      n += Long.bitCount(eq(word(b, p), NEWLINES));
+    for (; p < to; p++)
+      if ('\n' == b[p])
+        n++;
+    return n;
+  }
+
+  // the index of the last '\n' from "from" to "to", or -1
+  static int lastNewline(byte[] b, int from, int to)
+  {
+    int p = to;
+    for (; p - 8 >= from; p -= 8) {
+      long m = eq(word(b, p - 8), NEWLINES);
+      if (m != 0)
+        return p - 1 - (Long.numberOfLeadingZeros(m) >>> 3);
+    }
+    while (--p >= from)
+      if ('\n' == b[p])
+        return p;
+    return -1;
+  }
+}
@@ -1,56 +1,271 @@
 package parser;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.Ast;
+import ast.Ast.Dec;
+import ast.Ast.Exp;
+import ast.Ast.MainClass;
+import ast.Ast.Method;
+import ast.Ast.Program;
+import ast.Ast.Stm;
+import ast.Ast.Type;
 import lexer.Lexer;
-import lexer.Token;
 import lexer.Token.Kind;
+import lexer.TokenBuffer;
+import lexer.TokenRing;
+import util.Diagnostic;
+import util.Symbol;
 
 public class Parser
 {
+  String fname;
+  TokenBuffer tokens;
+  int next; // index in "tokens" of the next token to fetch
+  // Instead of "tokens", when the lexer runs on a thread of its own:
+  // the ring the tokens come through, and the lexer, whose errors
+  // are added to the parser's at the end.
+  TokenRing ring;
   Lexer lexer;
-  Token current, previous;
+  Kind current;
+  int depth; // number of "{" not closed yet before "current"
+
+  // The lookahead window: a ring buffer holding the current token
+  // and the few following ones fetched so far, so that the parser
+  // can peek at a token without consuming it.
+  private static final int LOOKAHEAD = 4; // a power of 2
+  private final Kind[] laKinds = new Kind[LOOKAHEAD];
+  private final long[] laPositions = new long[LOOKAHEAD];
+  private final Symbol[] laSyms = new Symbol[LOOKAHEAD];
+  private final int[] laValues = new int[LOOKAHEAD];
+  private int head; // slot of the current token
+  private int fetched; // number of tokens in the window
+
+  // the errors found so far, together with the lexical ones
+  List<Diagnostic> errors;
+  long lastError; // position of the token with the last error
+
+  // Thrown on a syntax error, to unwind to the closest point
+  // where parsing can resume. It carries nothing: the error has
+  // already been reported in "errors".
+  @SuppressWarnings("serial")
+  static class SyntaxError extends RuntimeException
+  {
+    SyntaxError()
+    {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final SyntaxError syntaxError = new SyntaxError();
+
+  public Parser(String fname) throws IOException
+  {
+    this(new Lexer(fname));
+  }
+
+  public Parser(String fname, java.io.InputStream fstream) throws IOException
+  {
+    this(new Lexer(fname, fstream));
+  }
+
+  public Parser(Lexer lexer)
+  {
+    this(lexer.fname(), lexer.tokenize(), lexer.errors());
+  }
+
+  public Parser(String fname, TokenBuffer tokens, List<Diagnostic> errors)
+  {
+    this(fname, tokens, null, null, errors);
+  }
+
+  private Parser(String fname, TokenBuffer tokens, TokenRing ring,
+      Lexer lexer, List<Diagnostic> errors)
+  {
+    this.fname = fname;
+    this.tokens = tokens;
+    this.ring = ring;
+    this.lexer = lexer;
+    this.errors = errors;
+    next = 0;
+    head = 0;
+    fetched = 0;
+    current = peek(0);
+    depth = 0;
+    lastError = -1;
+  }
+
+  // Parse the tokens of "lexer" while it is still scanning, on a
+  // thread of its own: lexing and parsing overlap, on two cores.
+  public static Parser pipelined(Lexer lexer)
+  {
+    TokenRing ring = new TokenRing(TokenRing.CAPACITY);
+    Thread thread = new Thread(() -> lexer.tokenize(ring), "lexer: "
+        + lexer.fname());
+    thread.setDaemon(true);
+    thread.start();
+    return new Parser(lexer.fname(), null, ring, lexer,
+        new ArrayList<Diagnostic>());
+  }
 
-  public Parser(String fname, java.io.InputStream fstream)
+  // All the errors in the file, lexical and syntactic. The tree
+  // returned by parse() is only meaningful if this is empty.
+  public List<Diagnostic> errors()
   {
-    lexer = new Lexer(fname, fstream);
-    current = lexer.nextToken();
-    previous = null;
+    return errors;
   }
 
   // /////////////////////////////////////////////
   // utility methods to connect the lexer
   // and the parser.
 
-  private void lookAhead()
+  // bring one more token from "tokens" into the lookahead window
+  private void fetch()
+  {
+    int slot = (head + fetched) & (LOOKAHEAD - 1);
+    if (ring != null) {
+      int i = ring.take();
+      laKinds[slot] = ring.kind(i);
+      laPositions[slot] = ring.position(i);
+      laSyms[slot] = ring.sym(i);
+      laValues[slot] = ring.value(i);
+      fetched++;
+      return;
+    }
+    laKinds[slot] = tokens.kind(next);
+    laPositions[slot] = tokens.position(next);
+    laSyms[slot] = tokens.sym(next);
+    laValues[slot] = tokens.value(next);
+    fetched++;
+    // stay on the final TOKEN_EOF
+    if (next < tokens.size() - 1)
+      next++;
+  }
+
+  // the kind of the k-th token after the current one, k < LOOKAHEAD
+  private Kind peek(int k)
+  {
+    while (fetched <= k)
+      fetch();
+    return laKinds[(head + k) & (LOOKAHEAD - 1)];
+  }
+
+  // position (see "TokenBuffer"), symbol and value of the current
+  // token
+  private long position()
+  {
+    return laPositions[head];
+  }
+
+  private Symbol sym()
+  {
+    return laSyms[head];
+  }
+
+  private int value()
   {
-    previous = current;
-    current = lexer.nextToken();
-    //System.out.println("Look ahead\n" + current);
+    return laValues[head];
   }
 
   private void advance()
   {
-    current = lexer.nextToken();
+    if (current == Kind.TOKEN_LBRACE)
+      depth++;
+    else if (current == Kind.TOKEN_RBRACE)
+      depth--;
+    head = (head + 1) & (LOOKAHEAD - 1);
+    fetched--;
+    current = peek(0);
     //System.out.println(current);
   }
 
   private void eatToken(Kind kind)
   {
-    if (kind == current.kind)
+    if (kind == current)
       advance();
     else {
-      System.out.println("At line " + current.lineNum + ", colum " + current.colNum);
-      System.out.println("\tExpects: " + kind.toString());
-      System.out.println("\tBut got: " + current.kind.toString());
-      System.exit(1);
+      report("Expects: " + kind.toString() + ", but got: "
+          + current.toString());
+      throw syntaxError;
     }
   }
 
+  // eat an identifier, and return its symbol
+  private Symbol eatId()
+  {
+    Symbol id = sym();
+    eatToken(Kind.TOKEN_ID);
+    return id;
+  }
+
+  // tag a node with a position taken from a token
+  private <X extends Ast.T> X at(long position, X node)
+  {
+    node.lineNum = TokenBuffer.lineNum(position);
+    node.colNum = TokenBuffer.colNum(position);
+    return node;
+  }
+
   private void error()
   {
-    System.out.println("Syntax error: compilation aborting...");
-    System.out.println("At line " + current.lineNum + ", colum " + current.colNum);
-    System.exit(1);
-    return;
+    report("Syntax error: unexpected " + current.toString());
+    throw syntaxError;
+  }
+
+  // Only the first error on a token is reported, the others
+  // being most likely consequences of it.
+  private void report(String message)
+  {
+    long position = position();
+    if (position == lastError)
+      return;
+    lastError = position;
+    errors.add(new Diagnostic(fname, TokenBuffer.lineNum(position),
+        TokenBuffer.colNum(position), message));
+  }
+
+  // ///////////////////////////////////////////////
+  // Panic mode error recovery. On a syntax error, the parser
+  // skips tokens up to one that can end the construct in error,
+  // then resumes right after that construct.
+
+  // Skip the rest of a statement or a declaration started at brace
+  // depth "level": stop on a ";" (which is eaten) or a "}" at that
+  // depth, nested blocks being skipped as a whole, or on a "class".
+  private void synchronize(int level)
+  {
+    while (current != Kind.TOKEN_EOF && current != Kind.TOKEN_CLASS
+        && !(depth <= level && (current == Kind.TOKEN_SEMI
+            || current == Kind.TOKEN_RBRACE)))
+      advance();
+    if (current == Kind.TOKEN_SEMI)
+      advance();
+  }
+
+  // Skip the rest of a method declared at brace depth "level":
+  // up to and including the "}" closing its body, or up to the
+  // next method or the end of the class if its body never opened.
+  private void synchronizeMethod(int level)
+  {
+    while (current != Kind.TOKEN_EOF && current != Kind.TOKEN_CLASS) {
+      if (depth == level && (current == Kind.TOKEN_PUBLIC
+          || current == Kind.TOKEN_RBRACE))
+        return;
+      if (depth == level + 1 && current == Kind.TOKEN_RBRACE) {
+        advance();
+        return;
+      }
+      advance();
+    }
+  }
+
+  // skip to the next class
+  private void synchronizeClass()
+  {
+    while (current != Kind.TOKEN_EOF && current != Kind.TOKEN_CLASS)
+      advance();
   }
 
   // ////////////////////////////////////////////////////////////
@@ -62,16 +277,17 @@ public class Parser
   // ExpList -> Exp ExpRest*
   // ->
   // ExpRest -> , Exp
-  private void parseExpList()
+  private List<Exp.T> parseExpList()
   {
-    if (current.kind == Kind.TOKEN_RPAREN)
-      return;
-    parseExp();
-    while (current.kind == Kind.TOKEN_COMMER) {
+    List<Exp.T> args = new ArrayList<Exp.T>();
+    if (current == Kind.TOKEN_RPAREN)
+      return args;
+    args.add(parseExp());
+    while (current == Kind.TOKEN_COMMER) {
       advance();
-      parseExp();
+      args.add(parseExp());
     }
-    return;
+    return args;
   }
 
   // AtomExp -> (exp)
@@ -82,51 +298,56 @@ public class Parser
   // -> id
   // -> new int [exp]
   // -> new id ()
-  private void parseAtomExp()
+  private Exp.T parseAtomExp()
   {
-    switch (current.kind) {
+    long start = position();
+    Exp.T exp;
+
+    switch (current) {
     case TOKEN_LPAREN:
       advance();
-      parseExp();
+      exp = parseExp();
       eatToken(Kind.TOKEN_RPAREN);
-      return;
-    case TOKEN_NUM:
+      return exp;
+    case TOKEN_NUM: {
+      int num = value();
       advance();
-      return;
+      return at(start, new Exp.Num(num));
+    }
     case TOKEN_TRUE:
       advance();
-      return;
+      return at(start, new Exp.True());
     case TOKEN_FALSE:
       advance();
-      return;
+      return at(start, new Exp.False());
     case TOKEN_THIS:
       advance();
-      return;
+      return at(start, new Exp.This());
     case TOKEN_ID:
-      advance();
-      return;
+      return at(start, new Exp.Id(eatId()));
     case TOKEN_NEW: {
       advance();
-      switch (current.kind) {
+      switch (current) {
       case TOKEN_INT:
         advance();
         eatToken(Kind.TOKEN_LBRACK);
-        parseExp();
+        exp = parseExp();
         eatToken(Kind.TOKEN_RBRACK);
-        return;
-      case TOKEN_ID:
-        advance();
+        return at(start, new Exp.NewIntArray(exp));
+      case TOKEN_ID: {
+        Symbol id = eatId();
         eatToken(Kind.TOKEN_LPAREN);
         eatToken(Kind.TOKEN_RPAREN);
-        return;
+        return at(start, new Exp.NewObject(id));
+      }
       default:
         error();
-        return;
+        return null;
       }
     }
     default:
       error();
-      return;
+      return null;
     }
   }
 
@@ -134,87 +355,123 @@ public class Parser
   // -> AtomExp .id (expList)
   // -> AtomExp [exp]
   // -> AtomExp .length
-  private void parseNotExp()
+  private Exp.T parseNotExp()
   {
-    parseAtomExp();
-    while (current.kind == Kind.TOKEN_DOT || current.kind == Kind.TOKEN_LBRACK) {
-      if (current.kind == Kind.TOKEN_DOT) {
+    Exp.T exp = parseAtomExp();
+    while (current == Kind.TOKEN_DOT || current == Kind.TOKEN_LBRACK) {
+      long start = position();
+      if (current == Kind.TOKEN_DOT) {
         advance();
-        if (current.kind == Kind.TOKEN_LENGTH) {
+        if (current == Kind.TOKEN_LENGTH) {
           advance();
-          return;
+          return at(start, new Exp.Length(exp));
         }
-        eatToken(Kind.TOKEN_ID);
+        Symbol id = eatId();
         eatToken(Kind.TOKEN_LPAREN);
-        parseExpList();
+        List<Exp.T> args = parseExpList();
         eatToken(Kind.TOKEN_RPAREN);
+        exp = at(start, new Exp.Call(exp, id, args));
       } else {
         advance();
-        parseExp();
+        Exp.T index = parseExp();
         eatToken(Kind.TOKEN_RBRACK);
+        exp = at(start, new Exp.ArraySelect(exp, index));
       }
     }
-    return;
+    return exp;
   }
 
   // TimesExp -> ! TimesExp
   // -> NotExp
-  private void parseTimesExp()
+  private Exp.T parseTimesExp()
   {
-    while (current.kind == Kind.TOKEN_NOT) {
+    if (current == Kind.TOKEN_NOT) {
+      long start = position();
       advance();
+      return at(start, new Exp.Not(parseTimesExp()));
     }
-    parseNotExp();
-    return;
+    return parseNotExp();
   }
 
   // AddSubExp -> TimesExp * TimesExp
   // -> TimesExp
-  private void parseAddSubExp()
+  private Exp.T parseAddSubExp()
   {
-    parseTimesExp();
-    while (current.kind == Kind.TOKEN_TIMES) {
+    Exp.T left = parseTimesExp();
+    while (current == Kind.TOKEN_TIMES) {
+      long op = position();
       advance();
-      parseTimesExp();
+      left = at(op, new Exp.Times(left, parseTimesExp()));
     }
-    return;
+    return left;
   }
 
   // LtExp -> AddSubExp + AddSubExp
   // -> AddSubExp - AddSubExp
   // -> AddSubExp
-  private void parseLtExp()
+  private Exp.T parseLtExp()
   {
-    parseAddSubExp();
-    while (current.kind == Kind.TOKEN_ADD || current.kind == Kind.TOKEN_SUB) {
+    Exp.T left = parseAddSubExp();
+    while (current == Kind.TOKEN_ADD || current == Kind.TOKEN_SUB) {
+      long op = position();
+      Kind kind = current;
       advance();
-      parseAddSubExp();
+      Exp.T right = parseAddSubExp();
+      if (kind == Kind.TOKEN_ADD)
+        left = at(op, new Exp.Add(left, right));
+      else
+        left = at(op, new Exp.Sub(left, right));
     }
-    return;
+    return left;
   }
 
   // AndExp -> LtExp < LtExp
   // -> LtExp
-  private void parseAndExp()
+  private Exp.T parseAndExp()
   {
-    parseLtExp();
-    while (current.kind == Kind.TOKEN_LT) {
+    Exp.T left = parseLtExp();
+    while (current == Kind.TOKEN_LT) {
+      long op = position();
       advance();
-      parseLtExp();
+      left = at(op, new Exp.Lt(left, parseLtExp()));
     }
-    return;
+    return left;
   }
 
   // Exp -> AndExp && AndExp
   // -> AndExp
-  private void parseExp()
+  private Exp.T parseExp()
   {
-    parseAndExp();
-    while (current.kind == Kind.TOKEN_AND) {
+    Exp.T left = parseAndExp();
+    while (current == Kind.TOKEN_AND) {
+      long op = position();
       advance();
-      parseAndExp();
+      left = at(op, new Exp.And(left, parseAndExp()));
+    }
+    return left;
+  }
+
+  // the rest of "id = Exp ;" or "id [ Exp ]= Exp ;", with the
+  // "id" (at "start") already eaten
+  private Stm.T parseAssign(long start, Symbol id)
+  {
+    if (current == Kind.TOKEN_ASSIGN) {
+      eatToken(Kind.TOKEN_ASSIGN);
+      Exp.T exp = parseExp();
+      eatToken(Kind.TOKEN_SEMI);
+      return at(start, new Stm.Assign(id, exp));
+    } else if (current == Kind.TOKEN_LBRACK) {
+      eatToken(Kind.TOKEN_LBRACK);
+      Exp.T index = parseExp();
+      eatToken(Kind.TOKEN_RBRACK);
+      eatToken(Kind.TOKEN_ASSIGN);
+      Exp.T exp = parseExp();
+      eatToken(Kind.TOKEN_SEMI);
+      return at(start, new Stm.AssignArray(id, index, exp));
+    } else {
+      error();
+      return null;
     }
-    return;
   }
 
   // Statement -> { Statement* }
@@ -223,252 +480,228 @@ public class Parser
   // -> System.out.println ( Exp ) ;
   // -> id = Exp ;
   // -> id [ Exp ]= Exp ;
-  private void parseStatement()
-  {
-    //System.out.println("In parseStatement(), previous<" + (previous == null ? "null" : previous) 
-            //+ ">, current<" + current + ">");
-    if (previous != null && previous.kind == Kind.TOKEN_ID) {
-      if (current.kind == Kind.TOKEN_ASSIGN) {
-        eatToken(Kind.TOKEN_ASSIGN);
-        parseExp();
-        eatToken(Kind.TOKEN_SEMI);
-      } else if (current.kind == Kind.TOKEN_LBRACK) {
-        eatToken(Kind.TOKEN_LBRACK);
-        parseExp();
-        eatToken(Kind.TOKEN_RBRACK);
-        eatToken(Kind.TOKEN_ASSIGN);
-        parseExp();
-        eatToken(Kind.TOKEN_SEMI);
-      } else {
-        error();
-      }
-      previous = null;
-      return;
-    }
+  private Stm.T parseStatement()
+  {
+    long start = position();
+    Exp.T condition;
 
-    switch(current.kind) {
-      case TOKEN_LBRACE:
+    switch(current) {
+      case TOKEN_LBRACE: {
         eatToken(Kind.TOKEN_LBRACE);
-        if (current.kind == Kind.TOKEN_RBRACE) {
-          eatToken(Kind.TOKEN_RBRACE);
-        } else {
-          parseStatements();
-          eatToken(Kind.TOKEN_RBRACE);
-        }
-        return;
-      case TOKEN_WHILE:
+        List<Stm.T> stms = parseStatements();
+        eatToken(Kind.TOKEN_RBRACE);
+        return at(start, new Stm.Block(stms));
+      }
+      case TOKEN_WHILE: {
         eatToken(Kind.TOKEN_WHILE);
         eatToken(Kind.TOKEN_LPAREN);
-        parseExp();
+        condition = parseExp();
         eatToken(Kind.TOKEN_RPAREN);
-        parseStatements();
-        return;
-      case TOKEN_SYSTEM:
+        Stm.T body = parseStatement();
+        return at(start, new Stm.While(condition, body));
+      }
+      case TOKEN_SYSTEM: {
         eatToken(Kind.TOKEN_SYSTEM);
         eatToken(Kind.TOKEN_DOT);
         eatToken(Kind.TOKEN_OUT);
         eatToken(Kind.TOKEN_DOT);
         eatToken(Kind.TOKEN_PRINTLN);
         eatToken(Kind.TOKEN_LPAREN);
-        parseExp();
+        Exp.T exp = parseExp();
         eatToken(Kind.TOKEN_RPAREN);
         eatToken(Kind.TOKEN_SEMI);
-        return;
-      case TOKEN_IF:
+        return at(start, new Stm.Print(exp));
+      }
+      case TOKEN_IF: {
         eatToken(Kind.TOKEN_IF);
         eatToken(Kind.TOKEN_LPAREN);
-        parseExp();
+        condition = parseExp();
         eatToken(Kind.TOKEN_RPAREN);
-        parseStatements();
+        Stm.T thenn = parseStatement();
         eatToken(Kind.TOKEN_ELSE);
-        parseStatements();
-        return;
+        Stm.T elsee = parseStatement();
+        return at(start, new Stm.If(condition, thenn, elsee));
+      }
       case TOKEN_ID:
-        eatToken(Kind.TOKEN_ID);
-        if (current.kind == Kind.TOKEN_ASSIGN) {
-          eatToken(Kind.TOKEN_ASSIGN);
-          parseExp();
-          eatToken(Kind.TOKEN_SEMI);
-        } else if (current.kind == Kind.TOKEN_LBRACK) {
-          eatToken(Kind.TOKEN_LBRACK);
-          parseExp();
-          eatToken(Kind.TOKEN_RBRACK);
-          eatToken(Kind.TOKEN_ASSIGN);
-          parseExp();
-          eatToken(Kind.TOKEN_SEMI);
-        } else {
-          error();
-        }
-        return;
+        return parseAssign(start, eatId());
       default:
         error();
-        return;
+        return null;
     }
   }
 
   // Statements -> Statement Statements
   // ->
-  private void parseStatements()
-  {
-    while (current.kind == Kind.TOKEN_LBRACE || current.kind == Kind.TOKEN_IF
-        || current.kind == Kind.TOKEN_WHILE
-        || current.kind == Kind.TOKEN_SYSTEM
-        || current.kind == Kind.TOKEN_ID || (previous != null && previous.kind == Kind.TOKEN_ID)) {
-      if (current.kind == Kind.TOKEN_ID) {
-        lookAhead();
-        if (current.kind == Kind.TOKEN_ID) {
-          parseVarDecls();
-        } else if (current.kind == Kind.TOKEN_ASSIGN || current.kind == Kind.TOKEN_LBRACK) {
-          parseStatement();
-        } else {
+  private List<Stm.T> parseStatements()
+  {
+    List<Stm.T> stms = new ArrayList<Stm.T>();
+    while (current == Kind.TOKEN_LBRACE || current == Kind.TOKEN_IF
+        || current == Kind.TOKEN_WHILE
+        || current == Kind.TOKEN_SYSTEM
+        || current == Kind.TOKEN_ID) {
+      int level = depth;
+      try {
+        // "id id" would be a declaration after statements
+        if (current == Kind.TOKEN_ID && peek(1) == Kind.TOKEN_ID)
           error();
-        }
-      } else {
-        parseStatement();
+        stms.add(parseStatement());
+      } catch (SyntaxError e) {
+        synchronize(level);
       }
     }
-    return;
+    return stms;
   }
 
   // Type -> int []
   // -> boolean
   // -> int
   // -> id
-  private void parseType()
+  private Type.T parseType()
   {
-    //System.out.println("In parseType(), previous<" + (previous == null ? "null" : previous) 
-            //+ ">, current<" + current + ">");
-    if (previous != null && previous.kind == Kind.TOKEN_ID) {
-      previous = null;
-      return;
-    }
-
-    switch(current.kind) {
+    long start = position();
+    switch(current) {
     case TOKEN_BOOLEAN:
       eatToken(Kind.TOKEN_BOOLEAN);
-      return;
+      return at(start, new Type.Boolean());
     case TOKEN_ID:
-      eatToken(Kind.TOKEN_ID);
-      return;
+      return at(start, new Type.ClassType(eatId()));
     case TOKEN_INT:
       eatToken(Kind.TOKEN_INT);
-      if (current.kind == Kind.TOKEN_LBRACK) {
+      if (current == Kind.TOKEN_LBRACK) {
         eatToken(Kind.TOKEN_LBRACK);
         eatToken(Kind.TOKEN_RBRACK);
+        return at(start, new Type.IntArray());
       }
-      return;
+      return at(start, new Type.Int());
     default:
       error();
-      return;
+      return null;
     }
   }
 
   // VarDecl -> Type id ;
-  private void parseVarDecl()
+  private Dec.T parseVarDecl()
   {
     // to parse the "Type" nonterminal in this method, instead of writing
     // a fresh one.
-    parseType();
-    eatToken(Kind.TOKEN_ID);
+    Type.T type = parseType();
+    long start = position();
+    Symbol id = eatId();
     eatToken(Kind.TOKEN_SEMI);
-    return;
+    return at(start, new Dec.DecSingle(type, id));
   }
 
   // VarDecls -> VarDecl VarDecls
   // ->
-  private void parseVarDecls()
-  {
-    while (current.kind == Kind.TOKEN_INT || current.kind == Kind.TOKEN_BOOLEAN ||
-        current.kind == Kind.TOKEN_ID || (previous != null && previous.kind == Kind.TOKEN_ID)) {
-      if (current.kind == Kind.TOKEN_ID) {
-        lookAhead();
-        if (current.kind == Kind.TOKEN_ID) {
-          parseVarDecl();
-        } else if (current.kind == Kind.TOKEN_ASSIGN) {
-          parseStatements();
-        } else {
-          error();
-        }
-      } else {
-        parseVarDecl();
+  private List<Dec.T> parseVarDecls()
+  {
+    List<Dec.T> decs = new ArrayList<Dec.T>();
+    while (current == Kind.TOKEN_INT || current == Kind.TOKEN_BOOLEAN ||
+        current == Kind.TOKEN_ID) {
+      int level = depth;
+      // "id =" or "id [" is the first statement
+      if (current == Kind.TOKEN_ID && peek(1) != Kind.TOKEN_ID)
+        break;
+      try {
+        decs.add(parseVarDecl());
+      } catch (SyntaxError e) {
+        synchronize(level);
       }
     }
-    return;
+    return decs;
   }
 
   // FormalList -> Type id FormalRest*
   // ->
   // FormalRest -> , Type id
-  private void parseFormalList()
+  private List<Dec.T> parseFormalList()
   {
-    if (current.kind == Kind.TOKEN_INT || current.kind == Kind.TOKEN_BOOLEAN
-        || current.kind == Kind.TOKEN_ID) {
-      parseType();
-      eatToken(Kind.TOKEN_ID);
-      while (current.kind == Kind.TOKEN_COMMER) {
+    List<Dec.T> formals = new ArrayList<Dec.T>();
+    if (current == Kind.TOKEN_INT || current == Kind.TOKEN_BOOLEAN
+        || current == Kind.TOKEN_ID) {
+      Type.T type = parseType();
+      long start = position();
+      formals.add(at(start, new Dec.DecSingle(type, eatId())));
+      while (current == Kind.TOKEN_COMMER) {
         advance();
-        parseType();
-        eatToken(Kind.TOKEN_ID);
+        type = parseType();
+        start = position();
+        formals.add(at(start, new Dec.DecSingle(type, eatId())));
       }
     }
-    return;
+    return formals;
   }
 
   // Method -> public Type id ( FormalList )
   // { VarDecl* Statement* return Exp ;}
-  private void parseMethod()
+  private Method.T parseMethod()
   {
+    long start = position();
     eatToken(Kind.TOKEN_PUBLIC);
-    parseType();
-    eatToken(Kind.TOKEN_ID);
+    Type.T retType = parseType();
+    Symbol id = eatId();
     eatToken(Kind.TOKEN_LPAREN);
-    parseFormalList();
+    List<Dec.T> formals = parseFormalList();
     eatToken(Kind.TOKEN_RPAREN);
     eatToken(Kind.TOKEN_LBRACE);
-    parseVarDecls();
-    parseStatements();
+    List<Dec.T> locals = parseVarDecls();
+    List<Stm.T> stms = parseStatements();
     eatToken(Kind.TOKEN_RETURN);
-    parseExp();
+    Exp.T retExp = parseExp();
     eatToken(Kind.TOKEN_SEMI);
     eatToken(Kind.TOKEN_RBRACE);
-    return;
+    return at(start, new Method.MethodSingle(retType, id, formals, locals,
+        stms, retExp));
   }
 
   // MethodDecls -> MethodDecl MethodDecls
   // ->
-  private void parseMethodDecls()
+  private List<Method.T> parseMethodDecls()
   {
-    while (current.kind == Kind.TOKEN_PUBLIC) {
-      parseMethod();
+    List<Method.T> methods = new ArrayList<Method.T>();
+    while (current == Kind.TOKEN_PUBLIC) {
+      int level = depth;
+      try {
+        methods.add(parseMethod());
+      } catch (SyntaxError e) {
+        synchronizeMethod(level);
+      }
     }
-    return;
+    return methods;
   }
 
   // ClassDecl -> class id { VarDecl* MethodDecl* }
   // -> class id extends id { VarDecl* MethodDecl* }
-  private void parseClassDecl()
+  private Ast.Class.T parseClassDecl()
   {
+    long start = position();
+    Symbol extendss = null;
     eatToken(Kind.TOKEN_CLASS);
-    eatToken(Kind.TOKEN_ID);
-    if (current.kind == Kind.TOKEN_EXTENDS) {
+    Symbol id = eatId();
+    if (current == Kind.TOKEN_EXTENDS) {
       eatToken(Kind.TOKEN_EXTENDS);
-      eatToken(Kind.TOKEN_ID);
+      extendss = eatId();
     }
     eatToken(Kind.TOKEN_LBRACE);
-    parseVarDecls();
-    parseMethodDecls();
+    List<Dec.T> decs = parseVarDecls();
+    List<Method.T> methods = parseMethodDecls();
     eatToken(Kind.TOKEN_RBRACE);
-    return;
+    return at(start, new Ast.Class.ClassSingle(id, extendss, decs, methods));
   }
 
   // ClassDecls -> ClassDecl ClassDecls
   // ->
-  private void parseClassDecls()
+  private List<Ast.Class.T> parseClassDecls()
   {
-    while (current.kind == Kind.TOKEN_CLASS) {
-      parseClassDecl();
+    List<Ast.Class.T> classes = new ArrayList<Ast.Class.T>();
+    while (current == Kind.TOKEN_CLASS) {
+      try {
+        classes.add(parseClassDecl());
+      } catch (SyntaxError e) {
+        synchronizeClass();
+      }
     }
-    return;
+    return classes;
   }
 
   // MainClass -> class id
@@ -478,10 +711,11 @@ public class Parser
   // Statement
   // }
   // }
-  private void parseMainClass()
+  private MainClass.T parseMainClass()
   {
+    long start = position();
     eatToken(Kind.TOKEN_CLASS);
-    eatToken(Kind.TOKEN_ID);
+    Symbol id = eatId();
     eatToken(Kind.TOKEN_LBRACE);
     eatToken(Kind.TOKEN_PUBLIC);
     eatToken(Kind.TOKEN_STATIC);
@@ -491,26 +725,49 @@ public class Parser
     eatToken(Kind.TOKEN_STRING);
     eatToken(Kind.TOKEN_LBRACK);
     eatToken(Kind.TOKEN_RBRACK);
-    eatToken(Kind.TOKEN_ID);
+    Symbol arg = eatId();
     eatToken(Kind.TOKEN_RPAREN);
     eatToken(Kind.TOKEN_LBRACE);
-    parseStatements();
+    Stm.T stm = parseStatement();
     eatToken(Kind.TOKEN_RBRACE);
     eatToken(Kind.TOKEN_RBRACE);
+    return at(start, new MainClass.MainClassSingle(id, arg, stm));
   }
 
   // Program -> MainClass ClassDecl*
-  private void parseProgram()
+  private Program.T parseProgram()
   {
-    parseMainClass();
-    parseClassDecls();
-    eatToken(Kind.TOKEN_EOF);
-    return;
+    long start = position();
+    MainClass.T mainClass = null;
+    try {
+      mainClass = parseMainClass();
+    } catch (SyntaxError e) {
+      synchronizeClass();
+    }
+    List<Ast.Class.T> classes = parseClassDecls();
+    try {
+      eatToken(Kind.TOKEN_EOF);
+    } catch (SyntaxError e) {
+    }
+    return at(start, new Program.ProgramSingle(mainClass, classes));
   }
 
-  public void parse()
+  // Parse the whole file. Syntax errors don't stop the parser, they
+  // are collected in "errors()", and the erroneous parts are left
+  // out of the tree.
+  public Program.T parse()
   {
-    parseProgram();
-    return;
+    if (ring == null)
+      return parseProgram();
+    Program.T program;
+    try {
+      program = parseProgram();
+    } finally {
+      ring.cancel();
+    }
+    // the lexical errors first, as if the lexer had run before
+    ring.awaitClosed();
+    errors.addAll(0, lexer.errors());
+    return program;
   }
 }
@@ -0,0 +1,86 @@
+package slp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// The assembly code being generated, which goes to an assembly file,
+// to the in-memory assembler X86, or to both. The text goes through
+// a buffer of a fixed size straight to the file, so that the memory
+// it takes does not grow with the program; there is no locking, the
+// file being written by one thread. The text is ASCII.
+//
+// An error writing the file is thrown as an UncheckedIOException,
+// to keep "throws" off every method of the code generator.
+public class Asm
+{
+  private FileChannel channel; // null if no file
+  private X86 x86; // null if no assembler
+  private byte[] bytes;
+  private ByteBuffer buf;
+  private int len;
+
+  public Asm(String fname, X86 x86) throws IOException
+  {
+    if (fname != null)
+      this.channel = FileChannel.open(Paths.get(fname),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    this.x86 = x86;
+    this.bytes = new byte[1 << 16];
+    this.buf = ByteBuffer.wrap(bytes);
+    this.len = 0;
+  }
+
+  public void emit(String s)
+  {
+    int n = s.length();
+    if (channel != null && n > bytes.length) {
+      // too long for the buffer: a piece at a time, to both
+      for (int i = 0; i < n; i += bytes.length)
+        put(s.substring(i, Math.min(n, i + bytes.length)));
+      return;
+    }
+    put(s);
+  }
+
+  // "s" fits in the buffer
+  private void put(String s)
+  {
+    if (x86 != null)
+      x86.emit(s);
+    if (channel == null)
+      return;
+    int n = s.length();
+    if (n > bytes.length - len)
+      flush();
+    for (int i = 0; i < n; i++)
+      bytes[len++] = (byte) s.charAt(i);
+  }
+
+  private void flush()
+  {
+    buf.clear().limit(len);
+    try {
+      while (buf.hasRemaining())
+        channel.write(buf);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    len = 0;
+  }
+
+  public void close() throws IOException
+  {
+    if (channel == null)
+      return;
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+}
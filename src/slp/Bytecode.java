@@ -0,0 +1,461 @@
+package slp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import slp.Slp.Exp;
+import slp.Slp.ExpList;
+import slp.Slp.Stm;
+import util.Bug;
+
+// Compile a program to a JVM class, in memory, and run it: the JIT
+// then does the rest. The class is
+//
+//   public class SlpProgram
+//   {
+//     static void m0(int[] vars) { ... }
+//     ...
+//     public static void run()
+//     {
+//       int[] vars = new int[<number of variables>];
+//       m0(vars); m1(vars); ...
+//     }
+//   }
+//
+// where the statements of the program are cut in chunks, one per
+// method, to keep under the 64K limit on the code of a method. Each
+// method works on local variables, loaded from "vars" on entry and
+// stored back on exit. The values printed go to the buffer of a
+// "Printer", through its static methods. The class file is version
+// 49, whose verifier needs no stack map frames, so the few jumps need
+// no more than their offsets.
+public class Bytecode
+{
+  static final String className = "SlpProgram";
+
+  // size of the code of a chunk, above which a new chunk starts
+  static final int chunkSize = 32 * 1024;
+
+  // size of the constant pool above which integers are no longer
+  // added to it, to leave room for the methods of the chunks
+  static final int poolIntegers = 48 * 1024;
+
+  // opcodes
+  static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+      LDC = 0x12, LDC_W = 0x13, ILOAD = 0x15, ALOAD_0 = 0x2a,
+      IALOAD = 0x2e, ISTORE = 0x36, ASTORE_0 = 0x4b, IASTORE = 0x4f,
+      DUP = 0x59, IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c,
+      ISHL = 0x78, IFNE = 0x9a, RETURN = 0xb1, INVOKESPECIAL = 0xb7,
+      INVOKESTATIC = 0xb8,
+      NEW = 0xbb, NEWARRAY = 0xbc, ATHROW = 0xbf, WIDE = 0xc4;
+
+  // ////////////////////////////////////////
+  // the constant pool
+  private ByteArrayOutputStream poolBytes;
+  private DataOutputStream pool;
+  private int poolCount;
+  private Map<String, Integer> poolIndex;
+
+  private int constant(String key, int tag, int a, int b, String utf)
+      throws IOException
+  {
+    Integer n = poolIndex.get(key);
+    if (n != null)
+      return n;
+    pool.writeByte(tag);
+    switch (tag) {
+    case 1: // Utf8
+      pool.writeUTF(utf);
+      break;
+    case 3: // Integer
+      pool.writeInt(a);
+      break;
+    case 7: // Class
+      pool.writeShort(a);
+      break;
+    default: // Fieldref, Methodref, NameAndType
+      pool.writeShort(a);
+      pool.writeShort(b);
+      break;
+    }
+    n = poolCount++;
+    poolIndex.put(key, n);
+    return n;
+  }
+
+  private int utf8(String s) throws IOException
+  {
+    return constant("U" + s, 1, 0, 0, s);
+  }
+
+  private int clazz(String name) throws IOException
+  {
+    return constant("C" + name, 7, utf8(name), 0, null);
+  }
+
+  private int integer(int i) throws IOException
+  {
+    return constant("I" + i, 3, i, 0, null);
+  }
+
+  private int member(int tag, String owner, String name, String type)
+      throws IOException
+  {
+    int nt = constant("N" + name + ":" + type, 12, utf8(name), utf8(type),
+        null);
+    return constant(tag + owner + "." + name + ":" + type, tag,
+        clazz(owner), nt, null);
+  }
+
+  // ////////////////////////////////////////
+  // the methods
+  private ByteArrayOutputStream methodBytes;
+  private DataOutputStream methods;
+  private int methodCount;
+
+  // variable name to index in "vars"
+  private Map<String, Integer> globals;
+
+  // the method being generated: variable name to local variable
+  // (0 is "vars")
+  private ByteArrayOutputStream codeBytes;
+  private DataOutputStream code;
+  private int stack;
+  private int maxStack;
+  private Map<String, Integer> locals;
+
+  private void startMethod()
+  {
+    codeBytes = new ByteArrayOutputStream();
+    code = new DataOutputStream(codeBytes);
+    stack = maxStack = 0;
+    locals = new LinkedHashMap<String, Integer>();
+  }
+
+  private void endMethod(String name, String type, int access, int maxLocals)
+      throws IOException
+  {
+    if (codeBytes.size() > 65535)
+      throw new IllegalArgumentException(
+          "SLP statement too large for one JVM method");
+    methods.writeShort(access);
+    methods.writeShort(utf8(name));
+    methods.writeShort(utf8(type));
+    methods.writeShort(1); // attributes
+    methods.writeShort(utf8("Code"));
+    methods.writeInt(2 + 2 + 4 + codeBytes.size() + 2 + 2);
+    methods.writeShort(maxStack);
+    methods.writeShort(maxLocals);
+    methods.writeInt(codeBytes.size());
+    codeBytes.writeTo(methods);
+    methods.writeShort(0); // exception table
+    methods.writeShort(0); // attributes of the code
+    methodCount++;
+  }
+
+  // Finish the chunk whose body is in "codeBytes": load the locals
+  // from "vars" in front of it, and store them back after it.
+  private void endChunk() throws IOException
+  {
+    ByteArrayOutputStream body = codeBytes;
+    int bodyStack = maxStack;
+    Map<String, Integer> used = locals;
+
+    startMethod();
+    for (String id : used.keySet()) {
+      emit(ALOAD_0, 1);
+      emitInt(global(id));
+      emit(IALOAD, -1);
+      emitLocal(ISTORE, id);
+    }
+    body.writeTo(code);
+    for (String id : used.keySet()) {
+      emit(ALOAD_0, 1);
+      emitInt(global(id));
+      emitLocal(ILOAD, id);
+      emit(IASTORE, -3);
+    }
+    emit(RETURN, 0);
+    maxStack = Math.max(maxStack, bodyStack);
+    endMethod("m" + (methodCount), "([I)V", 0x0008, 1 + used.size());
+  }
+
+  private int global(String id)
+  {
+    Integer n = globals.get(id);
+    if (n == null) {
+      n = globals.size();
+      globals.put(id, n);
+    }
+    return n;
+  }
+
+  // account for an instruction which leaves "n" more (or less)
+  // values on the operand stack
+  private void stack(int n)
+  {
+    stack += n;
+    if (stack > maxStack)
+      maxStack = stack;
+  }
+
+  private void emit(int opcode, int n) throws IOException
+  {
+    code.writeByte(opcode);
+    stack(n);
+  }
+
+  private void emitIndexed(int opcode, int index, int n) throws IOException
+  {
+    emit(opcode, n);
+    code.writeShort(index);
+  }
+
+  private void emitLocal(int opcode, String id) throws IOException
+  {
+    Integer n = locals.get(id);
+    if (n == null) {
+      global(id);
+      n = locals.size() + 1;
+      locals.put(id, n);
+    }
+    int delta = opcode == ILOAD ? 1 : -1;
+    if (n <= 3) // iload_<n>, istore_<n>
+      emit((opcode == ILOAD ? 0x1a : 0x3b) + n, delta);
+    else if (n <= 255) {
+      emit(opcode, delta);
+      code.writeByte(n);
+    } else {
+      code.writeByte(WIDE);
+      emitIndexed(opcode, n, delta);
+    }
+  }
+
+  private void emitInt(int i) throws IOException
+  {
+    if (i >= -1 && i <= 5)
+      emit(ICONST_0 + i, 1);
+    else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+      emit(BIPUSH, 1);
+      code.writeByte(i);
+    } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+      emitIndexed(SIPUSH, i, 1);
+    } else if (poolCount >= poolIntegers && !poolIndex.containsKey("I" + i)) {
+      // the pool is filling up: (high << 16) + low
+      int low = (short) i;
+      emitIndexed(SIPUSH, (i - low) >> 16, 1);
+      emit(BIPUSH, 1);
+      code.writeByte(16);
+      emit(ISHL, -1);
+      emitIndexed(SIPUSH, low, 1);
+      emit(IADD, -1);
+    } else {
+      int n = integer(i);
+      if (n <= 255) {
+        emit(LDC, 1);
+        code.writeByte(n);
+      } else
+        emitIndexed(LDC_W, n, 1);
+    }
+  }
+
+  // ////////////////////////////////////////
+  // statements and expressions
+  private void compileExp(Exp.T exp) throws IOException
+  {
+    while (exp instanceof Exp.Eseq) {
+      compileStm(((Exp.Eseq) exp).stm);
+      exp = ((Exp.Eseq) exp).exp;
+    }
+    if (exp instanceof Exp.Id) {
+      emitLocal(ILOAD, ((Exp.Id) exp).id);
+    } else if (exp instanceof Exp.Num) {
+      emitInt(((Exp.Num) exp).num);
+    } else if (exp instanceof Exp.Op) {
+      Exp.Op e = (Exp.Op) exp;
+      compileExp(e.left);
+      compileExp(e.right);
+      switch (e.op) {
+      case ADD:
+        emit(IADD, -1);
+        break;
+      case SUB:
+        emit(ISUB, -1);
+        break;
+      case TIMES:
+        emit(IMUL, -1);
+        break;
+      case DIVIDE:
+        // if (right == 0) throw new ArithmeticException();
+        emit(DUP, 1);
+        emit(IFNE, -1);
+        code.writeShort(3 + 3 + 1 + 3 + 1);
+        emitIndexed(NEW, clazz("java/lang/ArithmeticException"), 1);
+        emit(DUP, 1);
+        emitIndexed(INVOKESPECIAL, member(10,
+            "java/lang/ArithmeticException", "<init>", "()V"), -1);
+        emit(ATHROW, 0);
+        stack(-1);
+        emit(IDIV, -1);
+        break;
+      default:
+        new Bug();
+      }
+    } else {
+      new Bug();
+    }
+  }
+
+  // Printer.print(int) and Printer.println(int), in the pool
+  private int print, println;
+
+  private void compileExpList(ExpList.T expList) throws IOException
+  {
+    while (expList instanceof ExpList.Pair) {
+      ExpList.Pair el = (ExpList.Pair) expList;
+      compileExp(el.exp);
+      emitIndexed(INVOKESTATIC, print, -1);
+      expList = el.list;
+    }
+    if (expList instanceof ExpList.Last) {
+      compileExp(((ExpList.Last) expList).exp);
+      emitIndexed(INVOKESTATIC, println, -1);
+    } else
+      new Bug();
+  }
+
+  private void compileStm(Stm.T prog) throws IOException
+  {
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        Stm.Assign s = (Stm.Assign) stm;
+        compileExp(s.exp);
+        emitLocal(ISTORE, s.id);
+      } else if (stm instanceof Stm.Print) {
+        compileExpList(((Stm.Print) stm).explist);
+      } else {
+        new Bug();
+      }
+    }
+  }
+
+  // ////////////////////////////////////////
+  // the class file
+  public byte[] compile(Stm.T prog)
+  {
+    try {
+      poolBytes = new ByteArrayOutputStream();
+      pool = new DataOutputStream(poolBytes);
+      poolCount = 1;
+      poolIndex = new HashMap<String, Integer>();
+      methodBytes = new ByteArrayOutputStream();
+      methods = new DataOutputStream(methodBytes);
+      methodCount = 0;
+      globals = new HashMap<String, Integer>();
+      print = member(10, "slp/Printer", "print", "(I)V");
+      println = member(10, "slp/Printer", "println", "(I)V");
+
+      // the chunks
+      List<Stm.T> stms = new ArrayList<Stm.T>();
+      for (Stm.T stm : Stm.statements(prog))
+        stms.add(stm);
+      startMethod();
+      for (int i = 0; i < stms.size(); i++) {
+        compileStm(stms.get(i));
+        if (codeBytes.size() >= chunkSize || i == stms.size() - 1)
+          endChunk();
+        else
+          continue;
+        startMethod();
+      }
+
+      // run()
+      int chunks = methodCount;
+      startMethod();
+      emitInt(globals.size());
+      emit(NEWARRAY, 0);
+      code.writeByte(10); // int
+      emit(ASTORE_0, -1);
+      for (int i = 0; i < chunks; i++) {
+        emit(ALOAD_0, 1);
+        emitIndexed(INVOKESTATIC, member(10, className, "m" + i, "([I)V"),
+            -1);
+      }
+      emit(RETURN, 0);
+      endMethod("run", "()V", 0x0009, 1);
+
+      int thisClass = clazz(className);
+      int superClass = clazz("java/lang/Object");
+      if (poolCount > 65535)
+        throw new IllegalArgumentException(
+            "SLP program too large for one JVM class");
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0); // minor version
+      out.writeShort(49); // major version
+      out.writeShort(poolCount);
+      poolBytes.writeTo(out);
+      out.writeShort(0x0021); // public super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      out.writeShort(methodCount);
+      methodBytes.writeTo(out);
+      out.writeShort(0); // attributes of the class
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // writes to memory never fail
+      new Bug();
+      return null;
+    }
+  }
+
+  // The loader of the class of the program, which sees "Printer" as
+  // this class does.
+  static class Loader extends ClassLoader
+  {
+    Loader()
+    {
+      super(Bytecode.class.getClassLoader());
+    }
+
+    Class<?> define(byte[] b)
+    {
+      return defineClass(className, b, 0, b.length);
+    }
+  }
+
+  // Compile and run the program. An exception raised by the program
+  // (a division by zero) is thrown from here, once what the program
+  // printed before is out.
+  public void run(Stm.T prog)
+  {
+    byte[] b = compile(prog);
+    Printer.jvm = new Printer();
+    try {
+      new Loader().define(b).getMethod("run").invoke(null);
+    } catch (InvocationTargetException e) {
+      Throwable t = e.getCause();
+      if (t instanceof RuntimeException)
+        throw (RuntimeException) t;
+      if (t instanceof Error)
+        throw (Error) t;
+      throw new RuntimeException(t);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    } finally {
+      Printer.jvm.flush();
+      Printer.jvm = null;
+    }
+  }
+}
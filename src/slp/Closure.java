@@ -0,0 +1,230 @@
+package slp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import slp.Slp.Exp;
+import slp.Slp.ExpList;
+import slp.Slp.Stm;
+import util.Bug;
+
+// An interpreter which translates the program, once, into a tree
+// of closures: the type tests are done at translation time, and
+// every variable becomes an index into an int[] frame instead of a
+// key into a map. The closures can then be run any number of times.
+public class Closure
+{
+  interface ExpCode
+  {
+    public int eval(int[] frame);
+  }
+
+  interface StmCode
+  {
+    public void exec(int[] frame);
+  }
+
+  // a program ready to run
+  public static class Code
+  {
+    StmCode stm;
+    int frameSize;
+    Printer printer;
+
+    Code(StmCode stm, int frameSize, Printer printer)
+    {
+      this.stm = stm;
+      this.frameSize = frameSize;
+      this.printer = printer;
+    }
+
+    public void run()
+    {
+      try {
+        stm.exec(new int[frameSize]);
+      } finally {
+        printer.flush();
+      }
+    }
+  }
+
+  private Printer printer;
+
+  // variable name to frame slot
+  private Map<String, Integer> slots;
+
+  private int slot(String id)
+  {
+    Integer n = slots.get(id);
+    if (n == null) {
+      n = slots.size();
+      slots.put(id, n);
+    }
+    return n;
+  }
+
+  // Most operators have a variable or a constant on the right:
+  // read them in place rather than through another closure.
+  private ExpCode compileLeafOp(Exp.Op e)
+  {
+    if (e.op == Exp.OP_T.DIVIDE)
+      return null;
+    ExpCode left;
+    if (e.right instanceof Exp.Num) {
+      int num = ((Exp.Num) e.right).num;
+      if (e.left instanceof Exp.Id) {
+        int a = slot(((Exp.Id) e.left).id);
+        switch (e.op) {
+        case ADD:
+          return (frame) -> frame[a] + num;
+        case SUB:
+          return (frame) -> frame[a] - num;
+        default:
+          return (frame) -> frame[a] * num;
+        }
+      }
+      left = compileExp(e.left);
+      switch (e.op) {
+      case ADD:
+        return (frame) -> left.eval(frame) + num;
+      case SUB:
+        return (frame) -> left.eval(frame) - num;
+      default:
+        return (frame) -> left.eval(frame) * num;
+      }
+    } else if (e.right instanceof Exp.Id) {
+      int b = slot(((Exp.Id) e.right).id);
+      if (e.left instanceof Exp.Id) {
+        int a = slot(((Exp.Id) e.left).id);
+        switch (e.op) {
+        case ADD:
+          return (frame) -> frame[a] + frame[b];
+        case SUB:
+          return (frame) -> frame[a] - frame[b];
+        default:
+          return (frame) -> frame[a] * frame[b];
+        }
+      }
+      left = compileExp(e.left);
+      switch (e.op) {
+      case ADD:
+        return (frame) -> left.eval(frame) + frame[b];
+      case SUB:
+        return (frame) -> left.eval(frame) - frame[b];
+      default:
+        return (frame) -> left.eval(frame) * frame[b];
+      }
+    }
+    return null;
+  }
+
+  private ExpCode compileExp(Exp.T exp)
+  {
+    if (exp instanceof Exp.Id) {
+      int n = slot(((Exp.Id) exp).id);
+      return (frame) -> frame[n];
+    } else if (exp instanceof Exp.Num) {
+      int num = ((Exp.Num) exp).num;
+      return (frame) -> num;
+    } else if (exp instanceof Exp.Op) {
+      Exp.Op e = (Exp.Op) exp;
+      ExpCode code = compileLeafOp(e);
+      if (code != null)
+        return code;
+      ExpCode left = compileExp(e.left);
+      ExpCode right = compileExp(e.right);
+      switch (e.op) {
+      case ADD:
+        return (frame) -> left.eval(frame) + right.eval(frame);
+      case SUB:
+        return (frame) -> left.eval(frame) - right.eval(frame);
+      case TIMES:
+        return (frame) -> left.eval(frame) * right.eval(frame);
+      case DIVIDE:
+        return (frame) -> {
+          int l = left.eval(frame);
+          int r = right.eval(frame);
+          if (0 == r)
+            throw new ArithmeticException();
+          return l / r;
+        };
+      default:
+        new Bug();
+      }
+    } else if (exp instanceof Exp.Eseq) {
+      // a chain of Eseqs runs its statements in one loop
+      List<StmCode> list = new ArrayList<StmCode>();
+      while (exp instanceof Exp.Eseq) {
+        list.add(compileStm(((Exp.Eseq) exp).stm));
+        exp = ((Exp.Eseq) exp).exp;
+      }
+      StmCode[] stms = list.toArray(new StmCode[list.size()]);
+      ExpCode ee = compileExp(exp);
+      return (frame) -> {
+        for (StmCode s : stms)
+          s.exec(frame);
+        return ee.eval(frame);
+      };
+    } else {
+      new Bug();
+    }
+    return null;
+  }
+
+  private StmCode compileExpList(ExpList.T expList)
+  {
+    Printer out = printer;
+    List<ExpCode> list = new ArrayList<ExpCode>();
+    while (expList instanceof ExpList.Pair) {
+      ExpList.Pair el = (ExpList.Pair) expList;
+      list.add(compileExp(el.exp));
+      expList = el.list;
+    }
+    if (!(expList instanceof ExpList.Last))
+      new Bug();
+    ExpCode last = compileExp(((ExpList.Last) expList).exp);
+    if (list.isEmpty())
+      return (frame) -> out.print(last.eval(frame), '\n');
+    ExpCode[] exps = list.toArray(new ExpCode[list.size()]);
+    return (frame) -> {
+      for (ExpCode e : exps)
+        out.print(e.eval(frame), ' ');
+      out.print(last.eval(frame), '\n');
+    };
+  }
+
+  private StmCode compileStm(Stm.T prog)
+  {
+    if (prog instanceof Stm.Compound) {
+      // a whole tree of compound statements runs as one loop
+      List<StmCode> list = new ArrayList<StmCode>();
+      for (Stm.T stm : Stm.statements(prog))
+        list.add(compileStm(stm));
+      StmCode[] stms = list.toArray(new StmCode[list.size()]);
+      return (frame) -> {
+        for (StmCode s : stms)
+          s.exec(frame);
+      };
+    } else if (prog instanceof Stm.Assign) {
+      Stm.Assign s = (Stm.Assign) prog;
+      int n = slot(s.id);
+      ExpCode exp = compileExp(s.exp);
+      return (frame) -> frame[n] = exp.eval(frame);
+    } else if (prog instanceof Stm.Print) {
+      return compileExpList(((Stm.Print) prog).explist);
+    } else {
+      new Bug();
+    }
+    return null;
+  }
+
+  public Code compile(Stm.T prog)
+  {
+    slots = new HashMap<String, Integer>();
+    printer = new Printer();
+    StmCode code = compileStm(prog);
+    return new Code(code, slots.size(), printer);
+  }
+}
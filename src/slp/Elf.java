@@ -0,0 +1,127 @@
+package slp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Write what X86 assembled as an executable ELF file, ready to run:
+// static, with no library, the program talking to the kernel with
+// system calls only. The file holds
+//
+//   the ELF header, the program headers, the text
+//   the data (from the next page on), followed in memory by the bss
+//
+// with one loadable segment for the text (read and execute) and one
+// for the data and the bss (read and write). The entry point is the
+// label "_start".
+public class Elf
+{
+  static final int PAGE = 0x1000;
+
+  static final int PT_LOAD = 1;
+  static final int PT_GNU_STACK = 0x6474e551;
+  static final int PF_X = 1, PF_W = 2, PF_R = 4;
+
+  private static long align(long n, long a)
+  {
+    return (n + a - 1) & -a;
+  }
+
+  public static void write(String fname, X86 asm) throws IOException
+  {
+    boolean x64 = asm.x64;
+    int ehSize = x64 ? 64 : 52;
+    int phSize = x64 ? 56 : 32;
+    int phNum = 3;
+    long base = x64 ? 0x400000L : 0x08048000L;
+
+    long textOff = ehSize + phNum * phSize;
+    long textAddr = base + textOff;
+    long dataOff = align(textOff + asm.text.size, PAGE);
+    long dataAddr = base + dataOff;
+    long bssAddr = align(dataAddr + asm.data.size, 16);
+    long memSize = bssAddr + asm.bss.size - dataAddr;
+
+    asm.link(textAddr, dataAddr, bssAddr);
+    long entry = asm.address("_start", textAddr, dataAddr, bssAddr);
+
+    ByteBuffer h = ByteBuffer.allocate((int) textOff);
+    h.order(ByteOrder.LITTLE_ENDIAN);
+    // e_ident
+    h.put((byte) 0x7f).put((byte) 'E').put((byte) 'L').put((byte) 'F');
+    h.put((byte) (x64 ? 2 : 1)); // class
+    h.put((byte) 1); // little endian
+    h.put((byte) 1); // version
+    h.put((byte) 0); // System V
+    h.position(16);
+    h.putShort((short) 2); // e_type: executable
+    h.putShort((short) (x64 ? 62 : 3)); // e_machine: x86-64, 386
+    h.putInt(1); // e_version
+    word(h, x64, entry);
+    word(h, x64, ehSize); // e_phoff
+    word(h, x64, 0); // e_shoff: no section headers
+    h.putInt(0); // e_flags
+    h.putShort((short) ehSize);
+    h.putShort((short) phSize);
+    h.putShort((short) phNum);
+    h.putShort((short) (x64 ? 64 : 40)); // e_shentsize
+    h.putShort((short) 0); // e_shnum
+    h.putShort((short) 0); // e_shstrndx
+
+    // the headers and the text
+    segment(h, x64, PT_LOAD, PF_R | PF_X, 0, base, textOff + asm.text.size,
+        textOff + asm.text.size, PAGE);
+    // the data and the bss
+    segment(h, x64, PT_LOAD, PF_R | PF_W, dataOff, dataAddr, asm.data.size,
+        memSize, PAGE);
+    // a stack that is not executable
+    segment(h, x64, PT_GNU_STACK, PF_R | PF_W, 0, 0, 0, 0, 16);
+    h.flip();
+
+    try (FileChannel out = FileChannel.open(Paths.get(fname),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeAll(out, h);
+      writeAll(out, ByteBuffer.wrap(asm.text.bytes, 0, asm.text.size));
+      out.position(dataOff);
+      writeAll(out, ByteBuffer.wrap(asm.data.bytes, 0, asm.data.size));
+    }
+    new File(fname).setExecutable(true, false);
+  }
+
+  // an address or an offset: 4 or 8 bytes
+  private static void word(ByteBuffer h, boolean x64, long v)
+  {
+    if (x64)
+      h.putLong(v);
+    else
+      h.putInt((int) v);
+  }
+
+  private static void segment(ByteBuffer h, boolean x64, int type, int flags,
+      long offset, long addr, long fileSize, long memSize, long align)
+  {
+    h.putInt(type);
+    if (x64)
+      h.putInt(flags);
+    word(h, x64, offset);
+    word(h, x64, addr);
+    word(h, x64, addr); // p_paddr
+    word(h, x64, fileSize);
+    word(h, x64, memSize);
+    if (!x64)
+      h.putInt(flags);
+    word(h, x64, align);
+  }
+
+  private static void writeAll(FileChannel out, ByteBuffer b)
+      throws IOException
+  {
+    while (b.hasRemaining())
+      out.write(b);
+  }
+}
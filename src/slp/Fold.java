@@ -0,0 +1,181 @@
+package slp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import slp.Slp.Exp;
+import slp.Slp.ExpList;
+import slp.Slp.Stm;
+import util.Bug;
+
+// Constant folding, algebraic simplification and constant
+// propagation, in one walk of the program in evaluation order.
+//
+// An operator on two constants becomes a constant, except a
+// division by zero, which stays for the program to raise when it
+// gets there. x+0, 0+x, x-0, x*1, 1*x and x/1 become x, and x*0 and
+// 0*x become 0 if evaluating x has no effect. A variable assigned a
+// constant is replaced by that constant wherever it is read, till
+// it is assigned something else.
+//
+// Compound statements, Eseq chains and expression lists are walked
+// with loops and rebuilt from their end, so that how long they are
+// does not matter to the Java stack.
+public class Fold
+{
+  // variables whose value is known at this point of the program
+  private Map<String, Integer> known;
+
+  private static boolean isNum(Exp.T exp, int n)
+  {
+    return exp instanceof Exp.Num && ((Exp.Num) exp).num == n;
+  }
+
+  // Whether evaluating "exp" does nothing but compute a value:
+  // no assignment, no printing, no division by zero.
+  private static boolean pure(Exp.T exp)
+  {
+    if (exp instanceof Exp.Id || exp instanceof Exp.Num)
+      return true;
+    if (exp instanceof Exp.Op) {
+      Exp.Op e = (Exp.Op) exp;
+      if (e.op == Exp.OP_T.DIVIDE
+          && !(e.right instanceof Exp.Num && !isNum(e.right, 0)))
+        return false;
+      return pure(e.left) && pure(e.right);
+    }
+    return false;
+  }
+
+  private Exp.T foldOp(Exp.OP_T op, Exp.T left, Exp.T right)
+  {
+    if (left instanceof Exp.Num && right instanceof Exp.Num) {
+      int l = ((Exp.Num) left).num;
+      int r = ((Exp.Num) right).num;
+      switch (op) {
+      case ADD:
+        return new Exp.Num(l + r);
+      case SUB:
+        return new Exp.Num(l - r);
+      case TIMES:
+        return new Exp.Num(l * r);
+      case DIVIDE:
+        if (r != 0)
+          return new Exp.Num(l / r);
+        break;
+      default:
+        new Bug();
+      }
+      return new Exp.Op(op, left, right);
+    }
+
+    switch (op) {
+    case ADD:
+      if (isNum(left, 0))
+        return right;
+      if (isNum(right, 0))
+        return left;
+      break;
+    case SUB:
+      if (isNum(right, 0))
+        return left;
+      break;
+    case TIMES:
+      if (isNum(left, 1))
+        return right;
+      if (isNum(right, 1))
+        return left;
+      if (isNum(left, 0) && pure(right) || isNum(right, 0) && pure(left))
+        return new Exp.Num(0);
+      break;
+    case DIVIDE:
+      if (isNum(right, 1))
+        return left;
+      break;
+    default:
+      new Bug();
+    }
+    return new Exp.Op(op, left, right);
+  }
+
+  private Exp.T foldExp(Exp.T exp)
+  {
+    if (exp instanceof Exp.Id) {
+      Integer n = known.get(((Exp.Id) exp).id);
+      return n == null ? exp : new Exp.Num(n);
+    } else if (exp instanceof Exp.Num) {
+      return exp;
+    } else if (exp instanceof Exp.Op) {
+      Exp.Op e = (Exp.Op) exp;
+      Exp.T left = foldExp(e.left);
+      Exp.T right = foldExp(e.right);
+      return foldOp(e.op, left, right);
+    } else if (exp instanceof Exp.Eseq) {
+      List<Stm.T> stms = new ArrayList<Stm.T>();
+      while (exp instanceof Exp.Eseq) {
+        stms.add(foldStm(((Exp.Eseq) exp).stm));
+        exp = ((Exp.Eseq) exp).exp;
+      }
+      Exp.T result = foldExp(exp);
+      for (int i = stms.size() - 1; i >= 0; i--)
+        result = new Exp.Eseq(stms.get(i), result);
+      return result;
+    } else {
+      new Bug();
+    }
+    return null;
+  }
+
+  private ExpList.T foldExpList(ExpList.T expList)
+  {
+    List<Exp.T> exps = new ArrayList<Exp.T>();
+    while (expList instanceof ExpList.Pair) {
+      ExpList.Pair el = (ExpList.Pair) expList;
+      exps.add(foldExp(el.exp));
+      expList = el.list;
+    }
+    if (!(expList instanceof ExpList.Last)) {
+      new Bug();
+      return null;
+    }
+    ExpList.T result = new ExpList.Last(foldExp(((ExpList.Last) expList).exp));
+    for (int i = exps.size() - 1; i >= 0; i--)
+      result = new ExpList.Pair(exps.get(i), result);
+    return result;
+  }
+
+  private Stm.T foldStm(Stm.T prog)
+  {
+    if (prog instanceof Stm.Compound) {
+      // the result nests to the right, whatever the shape of "prog"
+      List<Stm.T> stms = new ArrayList<Stm.T>();
+      for (Stm.T stm : Stm.statements(prog))
+        stms.add(foldStm(stm));
+      Stm.T result = stms.get(stms.size() - 1);
+      for (int i = stms.size() - 2; i >= 0; i--)
+        result = new Stm.Compound(stms.get(i), result);
+      return result;
+    } else if (prog instanceof Stm.Assign) {
+      Stm.Assign s = (Stm.Assign) prog;
+      Exp.T exp = foldExp(s.exp);
+      if (exp instanceof Exp.Num)
+        known.put(s.id, ((Exp.Num) exp).num);
+      else
+        known.remove(s.id);
+      return new Stm.Assign(s.id, exp);
+    } else if (prog instanceof Stm.Print) {
+      return new Stm.Print(foldExpList(((Stm.Print) prog).explist));
+    } else {
+      new Bug();
+    }
+    return null;
+  }
+
+  public Stm.T fold(Stm.T prog)
+  {
+    known = new HashMap<String, Integer>();
+    return foldStm(prog);
+  }
+}
@@ -1,8 +1,12 @@
 package slp;
 
-import java.io.FileWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 import control.Control;
@@ -20,17 +24,24 @@ public class Main
   // ///////////////////////////////////////////
   // maximum number of args
 
+  //
+  // The traversals here loop over the statements of Compound trees
+  // (Stm.statements), over Eseq chains and over expression lists, so
+  // that the depth of the Java stack does not grow with the length
+  // of the program: it grows only with the nesting of expressions.
+
   private int maxArgsExp(Exp.T exp)
   {
+    int n = 1;
+    while (exp instanceof Exp.Eseq) {
+      Exp.Eseq e = (Exp.Eseq) exp;
+      n = Math.max(n, maxArgsStm(e.stm));
+      exp = e.exp;
+    }
     if (exp instanceof Exp.Id
         || exp instanceof Exp.Num
         || exp instanceof Exp.Op) {
-      return 1;
-    } else if (exp instanceof Exp.Eseq) {
-      Exp.Eseq e = (Exp.Eseq) exp;
-      int n1 = maxArgsStm(e.stm);
-      int n2 = maxArgsExp(e.exp);
-      return n1 >= n2 ? n1 : n2;
+      return n;
     } else  {
       new Bug();
     }
@@ -39,43 +50,49 @@ public class Main
   
   private int maxArgsExpList(ExpList.T expList)
   {
-    if (expList instanceof ExpList.Pair) {
-      ExpList.Pair el = (ExpList.Pair) expList;
-      return maxArgsExpList(el.list) + 1;
-    } else if (expList instanceof ExpList.Last) {
+    int n = 0;
+    while (expList instanceof ExpList.Pair) {
+      n++;
+      expList = ((ExpList.Pair) expList).list;
+    }
+    if (expList instanceof ExpList.Last) {
       ExpList.Last el = (ExpList.Last) expList;
-      return maxArgsExp(el.exp);
+      return n + maxArgsExp(el.exp);
     } else  {
       new Bug();
     }
     return 0;
   } 
 
-  private int maxArgsStm(Stm.T stm)
+  private int maxArgsStm(Stm.T prog)
   {
-    if (stm instanceof Stm.Compound) {
-      Stm.Compound s = (Stm.Compound) stm;
-      int n1 = maxArgsStm(s.s1);
-      int n2 = maxArgsStm(s.s2);
-      return n1 >= n2 ? n1 : n2;
-    } else if (stm instanceof Stm.Assign) {
-      Stm.Assign s = (Stm.Assign) stm; 
-      return maxArgsExp(s.exp);
-    } else if (stm instanceof Stm.Print) {
-      Stm.Print s = (Stm.Print) stm; 
-      return maxArgsExpList(s.explist);
-    } else {
-      new Bug();
+    int n = 0;
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        Stm.Assign s = (Stm.Assign) stm; 
+        n = Math.max(n, maxArgsExp(s.exp));
+      } else if (stm instanceof Stm.Print) {
+        Stm.Print s = (Stm.Print) stm; 
+        n = Math.max(n, maxArgsExpList(s.explist));
+      } else {
+        new Bug();
+      }
     }
-    return 0;
+    return n;
   }
 
   // ////////////////////////////////////////
   // interpreter
   private Map<String,Integer> mIdValue;
+  private Printer printer;
 
   private int interpExp(Exp.T exp)
   {
+    while (exp instanceof Exp.Eseq) {
+        Exp.Eseq e = (Exp.Eseq) exp;
+        interpStm(e.stm);
+        exp = e.exp;
+    }
     if (exp instanceof Exp.Id) {
         Exp.Id e = (Exp.Id) exp;
         return mIdValue.get(e.id);
@@ -107,10 +124,6 @@ public class Main
             break;
         }
         return ret;
-    } else if (exp instanceof Exp.Eseq) {
-        Exp.Eseq e = (Exp.Eseq) exp;
-        interpStm(e.stm);
-        return interpExp(e.exp);
     } else  {
       new Bug();
     }
@@ -119,13 +132,14 @@ public class Main
 
   private void printExpList(ExpList.T expList)
   {
-    if (expList instanceof ExpList.Pair) {
+    while (expList instanceof ExpList.Pair) {
       ExpList.Pair el = (ExpList.Pair) expList;
-      System.out.print(interpExp(el.exp) + " ");
-      printExpList(el.list);
-    } else if (expList instanceof ExpList.Last) {
+      printer.print(interpExp(el.exp), ' ');
+      expList = el.list;
+    }
+    if (expList instanceof ExpList.Last) {
       ExpList.Last el = (ExpList.Last) expList;
-      System.out.println(interpExp(el.exp));
+      printer.print(interpExp(el.exp), '\n');
     } else  {
       new Bug();
     }
@@ -133,153 +147,673 @@ public class Main
 
   private void interpStm(Stm.T prog)
   {
-    if (prog instanceof Stm.Compound) {
-      Stm.Compound s = (Stm.Compound) prog;
-      interpStm(s.s1);
-      interpStm(s.s2);
-    } else if (prog instanceof Stm.Assign) {
-      Stm.Assign s = (Stm.Assign) prog; 
-      mIdValue.put(s.id, interpExp(s.exp));
-    } else if (prog instanceof Stm.Print) {
-      Stm.Print s = (Stm.Print) prog; 
-      printExpList(s.explist);
-    } else {
-      new Bug();
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        Stm.Assign s = (Stm.Assign) stm; 
+        mIdValue.put(s.id, interpExp(s.exp));
+      } else if (stm instanceof Stm.Print) {
+        Stm.Print s = (Stm.Print) stm; 
+        printExpList(s.explist);
+      } else {
+        new Bug();
+      }
     }
   }
 
   // ////////////////////////////////////////
   // compile
-  HashSet<String> ids;
-  StringBuffer buf;
+  //
+  // Expressions are compiled with Sethi-Ullman numbering: "need"
+  // is the number of registers an expression takes to evaluate
+  // without going to memory, and an operator evaluates first the
+  // operand which needs more (as long as neither has side effects,
+  // which would be seen in the other order). The registers for
+  // temporaries are handed down as a stack, and a value is pushed
+  // to memory only when they run out. The variables used the most
+  // live in the callee-saved registers, which the runtime leaves
+  // alone; the others live in memory, under labels of their own.
+  //
+  // There are two targets: x86 with the cdecl convention (-slp
+  // compile), and x86-64 with the System V one (-slp x64), where
+  // slp_print takes its arguments in registers and a stack aligned
+  // on 16 bytes. Values are 32 bits on both.
+  //
+  // The program calls no library. Its runtime, emitted with it, is
+  // slp_print, which formats a value into the buffer slp_buf, and
+  // slp_flush, which writes the buffer out with the "write" system
+  // call, made directly (int $0x80 on x86, syscall on x86-64). An
+  // executable made by Elf starts at _start, which calls main and
+  // then makes the "exit" system call.
+  //
+  // The code is written as it is generated, and the variables in
+  // memory, known only at the end, go to a data section after it. It
+  // goes to the assembler X86, which makes an executable of it with
+  // Elf (a.out), unless -slp gcc says to write it to slp_gen.s and
+  // have gcc assemble and link it; -slp keepasm writes slp_gen.s in
+  // both cases.
+  HashSet<String> ids; // variables in memory
+  Map<String, String> homes; // variables in registers
+  List<String> temps; // registers for temporaries
+  HashSet<String> busy; // temporaries holding a live value
+  IdentityHashMap<Exp.T, Integer> needs;
+  IdentityHashMap<Exp.T, Boolean> pures;
+  Asm asm;
+
+  boolean x64;
+  String[] calleeSaved;
+  String[] callerSaved;
+  int slot; // bytes in a stack slot
+  int depth; // bytes pushed since the frame pointer was set
+
+  static final String[] calleeSaved32 = { "%ebx", "%esi", "%edi" };
+  static final String[] callerSaved32 = { "%eax", "%ecx", "%edx" };
+  static final String[] calleeSaved64 = { "%ebx", "%r12d", "%r13d",
+      "%r14d", "%r15d" };
+  static final String[] callerSaved64 = { "%eax", "%ecx", "%edx", "%esi",
+      "%edi", "%r8d", "%r9d", "%r10d", "%r11d" };
 
   private void emit(String s)
   {
-    buf.append(s);
+    asm.emit(s);
+  }
+
+  // the name of the whole of a register, as pushed and popped
+  private String wide(String r)
+  {
+    if (!x64)
+      return r;
+    if (r.startsWith("%r"))
+      return r.substring(0, r.length() - 1); // %r8d
+    return "%r" + r.substring(2);
+  }
+
+  private String sp()
+  {
+    return x64 ? "%rsp" : "%esp";
+  }
+
+  // the stack slot "n" slots above the top
+  private String top(int n)
+  {
+    return (n == 0 ? "" : Integer.toString(n * slot)) + "(" + sp() + ")";
+  }
+
+  // push a register or an immediate
+  private void push(String operand)
+  {
+    if (operand.startsWith("%"))
+      operand = wide(operand);
+    emit("\t" + (x64 ? "pushq" : "pushl") + "\t" + operand + "\n");
+    depth += slot;
+  }
+
+  private void pop(String r)
+  {
+    emit("\t" + (x64 ? "popq" : "popl") + "\t" + wide(r) + "\n");
+    depth -= slot;
+  }
+
+  // pop "bytes" bytes, the values being dead
+  private void release(int bytes)
+  {
+    emit("\t" + (x64 ? "addq" : "addl") + "\t$" + bytes + ", " + sp()
+        + "\n");
+    depth -= bytes;
+  }
+
+  // The label of a variable in memory. Any name goes in the text
+  // form, so the prefix keeps them off the labels of the code and of
+  // the runtime ("exit", "slp_buf", ...), none of which starts so.
+  private static String label(String id)
+  {
+    return "v_" + id;
+  }
+
+  // where a variable lives
+  private String home(String id)
+  {
+    String r = homes.get(id);
+    if (r != null)
+      return r;
+    ids.add(id);
+    return x64 ? label(id) + "(%rip)" : label(id);
+  }
+
+  private boolean isLeaf(Exp.T exp)
+  {
+    return exp instanceof Exp.Id || exp instanceof Exp.Num;
+  }
+
+  private int need(Exp.T exp)
+  {
+    return needs.get(exp);
+  }
+
+  private boolean pure(Exp.T exp)
+  {
+    return pures.get(exp);
+  }
+
+  // Fill in "needs" and "pures" for an expression and all the
+  // expressions under it; return the need of "exp".
+  private int label(Exp.T exp)
+  {
+    if (exp instanceof Exp.Eseq) {
+      // a chain of Eseqs: label its end, then back up the chain
+      List<Exp.Eseq> chain = new ArrayList<Exp.Eseq>();
+      while (exp instanceof Exp.Eseq) {
+        chain.add((Exp.Eseq) exp);
+        exp = ((Exp.Eseq) exp).exp;
+      }
+      int n = label(exp);
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        Exp.Eseq e = chain.get(i);
+        n = Math.max(labelStm(e.stm), n);
+        needs.put(e, n);
+        pures.put(e, false);
+      }
+      return n;
+    }
+
+    int n = 1;
+    boolean pure = true;
+    if (exp instanceof Exp.Op) {
+      Exp.Op e = (Exp.Op) exp;
+      int l = label(e.left);
+      int r = label(e.right);
+      if (isLeaf(e.right))
+        n = l;
+      else
+        n = l == r ? l + 1 : Math.max(l, r);
+      pure = pure(e.left) && pure(e.right);
+    }
+    needs.put(exp, n);
+    pures.put(exp, pure);
+    return n;
+  }
+
+  private int labelStm(Stm.T prog)
+  {
+    int n = 1;
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        n = Math.max(n, label(((Stm.Assign) stm).exp));
+      } else if (stm instanceof Stm.Print) {
+        ExpList.T list = ((Stm.Print) stm).explist;
+        while (list instanceof ExpList.Pair) {
+          n = Math.max(n, label(((ExpList.Pair) list).exp));
+          list = ((ExpList.Pair) list).list;
+        }
+        n = Math.max(n, label(((ExpList.Last) list).exp));
+      } else {
+        new Bug();
+      }
+    }
+    return n;
+  }
+
+  // count the uses of each variable, to pick those to keep in
+  // registers
+  private void countExp(Exp.T exp, Map<String, Integer> counts)
+  {
+    while (exp instanceof Exp.Eseq) {
+      countStm(((Exp.Eseq) exp).stm, counts);
+      exp = ((Exp.Eseq) exp).exp;
+    }
+    if (exp instanceof Exp.Id) {
+      counts.merge(((Exp.Id) exp).id, 1, Integer::sum);
+    } else if (exp instanceof Exp.Op) {
+      countExp(((Exp.Op) exp).left, counts);
+      countExp(((Exp.Op) exp).right, counts);
+    }
   }
 
-  private void compileExp(Exp.T exp)
+  private void countStm(Stm.T prog, Map<String, Integer> counts)
   {
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        counts.merge(((Stm.Assign) stm).id, 1, Integer::sum);
+        countExp(((Stm.Assign) stm).exp, counts);
+      } else if (stm instanceof Stm.Print) {
+        ExpList.T list = ((Stm.Print) stm).explist;
+        while (list instanceof ExpList.Pair) {
+          countExp(((ExpList.Pair) list).exp, counts);
+          list = ((ExpList.Pair) list).list;
+        }
+        countExp(((ExpList.Last) list).exp, counts);
+      }
+    }
+  }
+
+  // Where the right operand of a binary operator is, once both
+  // operands are evaluated: a register, a variable, an immediate,
+  // or the top of the stack, with "pop" bytes to pop after use.
+  static class Operand
+  {
+    String src;
+    boolean stack;
+    int pop;
+
+    Operand(String src, boolean stack, int pop)
+    {
+      this.src = src;
+      this.stack = stack;
+      this.pop = pop;
+    }
+  }
+
+  // Evaluate the left operand into regs[0] and the right one into
+  // wherever is cheapest.
+  private Operand compileOperands(Exp.Op e, List<String> regs)
+  {
+    String dst = regs.get(0);
+    if (isLeaf(e.right)) {
+      compileExp(e.left, regs);
+      if (e.right instanceof Exp.Num)
+        return new Operand("$" + ((Exp.Num) e.right).num, false, 0);
+      return new Operand(home(((Exp.Id) e.right).id), false, 0);
+    }
+
+    int nl = need(e.left);
+    int nr = need(e.right);
+    int size = regs.size();
+    if (nr < size && (nl >= nr || nl >= size || !pure(e.left)
+        || !pure(e.right))) {
+      // left, then right in the registers left
+      compileExp(e.left, regs);
+      busy.add(dst);
+      compileExp(e.right, regs.subList(1, size));
+      busy.remove(dst);
+      return new Operand(regs.get(1), false, 0);
+    }
+    if (nl < size && pure(e.left) && pure(e.right)) {
+      // right first, as it needs more registers than left
+      List<String> swapped = new ArrayList<String>(regs);
+      swapped.set(0, regs.get(1));
+      swapped.set(1, dst);
+      compileExp(e.right, swapped);
+      busy.add(regs.get(1));
+      List<String> rest = new ArrayList<String>(regs.subList(1, size));
+      rest.set(0, dst);
+      compileExp(e.left, rest);
+      busy.remove(regs.get(1));
+      return new Operand(regs.get(1), false, 0);
+    }
+    // out of registers: keep left on the stack meanwhile
+    compileExp(e.left, regs);
+    push(dst);
+    compileExp(e.right, regs);
+    if (size > 1) {
+      emit("\tmovl\t" + dst + ", " + regs.get(1) + "\n");
+      pop(dst);
+      return new Operand(regs.get(1), false, 0);
+    }
+    push(dst);
+    emit("\tmovl\t" + top(1) + ", " + dst + "\n");
+    return new Operand(top(0), true, 2 * slot);
+  }
+
+  // dst = dst / src, with the dividend in %edx:%eax for idivl
+  //
+  // idivl traps on INT_MIN / -1, which overflows; a division by -1 is
+  // a negl instead, giving INT_MIN back, as in Java and so in the
+  // other backends.
+  private void compileDivide(Exp.Op e, List<String> regs)
+  {
+    String dst = regs.get(0);
+    Operand right = compileOperands(e, regs);
+    boolean minus = false;
+    if (right.src.startsWith("$")) {
+      if (right.src.equals("$0")) {
+        emit("\tjmp\texception\n");
+        return;
+      }
+      if (right.src.equals("$-1")) {
+        emit("\tnegl\t" + dst + "\n");
+        if (right.pop > 0)
+          release(right.pop);
+        return;
+      }
+      push(right.src);
+      right = new Operand(top(0), true, right.pop + slot);
+    } else {
+      if (right.src.startsWith("%"))
+        emit("\ttestl\t" + right.src + ", " + right.src + "\n");
+      else
+        emit("\tcmpl\t$0, " + right.src + "\n");
+      emit("\tje\texception\n");
+      emit("\tcmpl\t$-1, " + right.src + "\n");
+      emit("\tjne\t1f\n");
+      emit("\tnegl\t" + dst + "\n");
+      emit("\tjmp\t2f\n");
+      emit("1:\n");
+      minus = true;
+    }
+
+    // save the live values in %eax and %edx
+    List<String> saved = new ArrayList<String>();
+    for (String r : new String[] { "%eax", "%edx" })
+      if (busy.contains(r) && !r.equals(dst)) {
+        push(r);
+        saved.add(0, r);
+      }
+    String src = right.src;
+    int extra = 0;
+    if (right.stack)
+      src = top(saved.size());
+    else if (src.equals("%eax") || src.equals("%edx")) {
+      push(src);
+      src = top(0);
+      extra = slot;
+    }
+    if (!dst.equals("%eax"))
+      emit("\tmovl\t" + dst + ", %eax\n");
+    emit("\tcltd\n");
+    emit("\tidivl\t" + src + "\n");
+    if (!dst.equals("%eax"))
+      emit("\tmovl\t%eax, " + dst + "\n");
+    if (extra > 0)
+      release(extra);
+    for (String r : saved)
+      pop(r);
+    if (minus)
+      emit("2:\n");
+    if (right.pop > 0)
+      release(right.pop);
+  }
+
+  // Evaluate "exp" into regs[0], using no register but those in
+  // "regs".
+  private void compileExp(Exp.T exp, List<String> regs)
+  {
+    while (exp instanceof Eseq) {
+      compileStm(((Eseq) exp).stm, regs);
+      exp = ((Eseq) exp).exp;
+    }
+    String dst = regs.get(0);
     if (exp instanceof Id) {
       Exp.Id e = (Exp.Id) exp;
-      String id = e.id;
 
-      emit("\tmovl\t" + id + ", %eax\n");
+      emit("\tmovl\t" + home(e.id) + ", " + dst + "\n");
     } else if (exp instanceof Num) {
       Exp.Num e = (Exp.Num) exp;
-      int num = e.num;
 
-      emit("\tmovl\t$" + num + ", %eax\n");
+      if (e.num == 0)
+        emit("\txorl\t" + dst + ", " + dst + "\n");
+      else
+        emit("\tmovl\t$" + e.num + ", " + dst + "\n");
     } else if (exp instanceof Op) {
       Exp.Op e = (Exp.Op) exp;
-      Exp.T left = e.left;
-      Exp.T right = e.right;
-      Exp.OP_T op = e.op;
+      String instr;
 
-      switch (op) {
+      switch (e.op) {
       case ADD:
-        compileExp(left);
-        emit("\tpushl\t%eax\n");
-        compileExp(right);
-        emit("\tpopl\t%edx\n");
-        emit("\taddl\t%edx, %eax\n");
+        instr = "addl";
         break;
       case SUB:
-        compileExp(left);
-        emit("\tpushl\t%eax\n");
-        compileExp(right);
-        emit("\tpopl\t%edx\n");
-        emit("\tsubl\t%eax, %edx\n");
-        emit("\tmovl\t%edx, %eax\n");
+        instr = "subl";
         break;
       case TIMES:
-        compileExp(left);
-        emit("\tpushl\t%eax\n");
-        compileExp(right);
-        emit("\tpopl\t%edx\n");
-        emit("\timul\t%edx\n");
+        instr = "imull";
         break;
       case DIVIDE:
-        compileExp(left);
-        emit("\tpushl\t%eax\n");
-        compileExp(right);
-        emit("\tcmpl\t$0, %eax\n");
-        emit("\tje\t\texception\n");
-        emit("\tpopl\t%edx\n");
-        emit("\tmovl\t%eax, %ecx\n");
-        emit("\tmovl\t%edx, %eax\n");
-        emit("\tcltd\n");
-        emit("\tdiv\t%ecx\n");
-        break;
+        compileDivide(e, regs);
+        return;
       default:
         new Bug();
+        return;
       }
-    } else if (exp instanceof Eseq) {
-      Eseq e = (Eseq) exp;
-      Stm.T stm = e.stm;
-      Exp.T ee = e.exp;
-
-      compileStm(stm);
-      compileExp(ee);
+      Operand right = compileOperands(e, regs);
+      emit("\t" + instr + "\t" + right.src + ", " + dst + "\n");
+      if (right.pop > 0)
+        release(right.pop);
     } else {
       new Bug();
     }
   }
 
-  private void compileExpList(ExpList.T explist)
+  // slp_print(value, sep), keeping the live temporaries it may
+  // trash; "value" is a register
+  private void compilePrint(String value, char sep)
   {
-    if (explist instanceof ExpList.Pair) {
+    List<String> saved = new ArrayList<String>();
+    for (String r : callerSaved)
+      if (busy.contains(r)) {
+        push(r);
+        saved.add(0, r);
+      }
+    if (x64) {
+      int pad = depth % 16;
+      if (pad != 0) {
+        emit("\tsubq\t$" + (16 - pad) + ", %rsp\n");
+        depth += 16 - pad;
+      }
+      if (!value.equals("%edi"))
+        emit("\tmovl\t" + value + ", %edi\n");
+      emit("\tmovl\t$" + (int) sep + ", %esi\n");
+      emit("\tcall\tslp_print\n");
+      if (pad != 0)
+        release(16 - pad);
+    } else {
+      push("$" + (int) sep);
+      push(value);
+      emit("\tcall\tslp_print\n");
+      release(2 * slot);
+    }
+    for (String r : saved)
+      pop(r);
+  }
+
+  private void compileExpList(ExpList.T explist, List<String> regs)
+  {
+    while (explist instanceof ExpList.Pair) {
       ExpList.Pair pair = (ExpList.Pair) explist;
-      Exp.T exp = pair.exp;
-      ExpList.T list = pair.list;
-
-      compileExp(exp);
-      emit("\tpushl\t%eax\n");
-      emit("\tpushl\t$slp_format\n");
-      emit("\tcall\tprintf\n");
-      emit("\taddl\t$4, %esp\n");
-      compileExpList(list);
-    } else if (explist instanceof ExpList.Last) {
+
+      compileExp(pair.exp, regs);
+      compilePrint(regs.get(0), ' ');
+      explist = pair.list;
+    }
+    if (explist instanceof ExpList.Last) {
       ExpList.Last last = (ExpList.Last) explist;
       Exp.T exp = last.exp;
 
-      compileExp(exp);
-      emit("\tpushl\t%eax\n");
-      emit("\tpushl\t$slp_format\n");
-      emit("\tcall\tprintf\n");
-      emit("\taddl\t$4, %esp\n");
+      compileExp(exp, regs);
+      compilePrint(regs.get(0), '\n');
     } else {
       new Bug();
     }
   }
 
-  private void compileStm(Stm.T prog)
+  private void compileStm(Stm.T prog, List<String> regs)
   {
-    if (prog instanceof Stm.Compound) {
-      Stm.Compound s = (Stm.Compound) prog;
-      Stm.T s1 = s.s1;
-      Stm.T s2 = s.s2;
-
-      compileStm(s1);
-      compileStm(s2);
-    } else if (prog instanceof Stm.Assign) {
-      Stm.Assign s = (Stm.Assign) prog;
-      String id = s.id;
-      Exp.T exp = s.exp;
-
-      ids.add(id);
-      compileExp(exp);
-      emit("\tmovl\t%eax, " + id + "\n");
-    } else if (prog instanceof Stm.Print) {
-      Stm.Print s = (Stm.Print) prog;
-      ExpList.T explist = s.explist;
-
-      compileExpList(explist);
-      emit("\tpushl\t$newline\n");
-      emit("\tcall\tprintf\n");
-      emit("\taddl\t$4, %esp\n");
-    } else {
-      new Bug();
+    for (Stm.T stm : Stm.statements(prog)) {
+      if (stm instanceof Stm.Assign) {
+        Stm.Assign s = (Stm.Assign) stm;
+        String id = s.id;
+        Exp.T exp = s.exp;
+
+        compileExp(exp, regs);
+        emit("\tmovl\t" + regs.get(0) + ", " + home(id) + "\n");
+      } else if (stm instanceof Stm.Print) {
+        Stm.Print s = (Stm.Print) stm;
+        ExpList.T explist = s.explist;
+
+        compileExpList(explist, regs);
+      } else {
+        new Bug();
+      }
+    }
+  }
+
+  // The runtime: slp_print(value, sep) puts the value and the
+  // separator in a buffer, and slp_flush writes the buffer out, with
+  // one "write" system call unless the buffer filled up meanwhile.
+  // Both use no register but those a call may trash.
+  static final int bufSize = 1 << 16;
+
+  static final String exceptionMsg = "Exception occurs!\n";
+
+  // Where an executable made by Elf starts: main(), then the "exit"
+  // system call with what main() returned.
+  static final String start32 = "\t.text\n"
+      + "_start:\n"
+      + "\tcall\tmain\n"
+      + "\tmovl\t%eax, %ebx\n"
+      + "\tmovl\t$1, %eax\n" // exit
+      + "\tint\t$0x80\n";
+
+  static final String start64 = "\t.text\n"
+      + "_start:\n"
+      + "\tcall\tmain\n"
+      + "\tmovl\t%eax, %edi\n"
+      + "\tmovl\t$60, %eax\n" // exit
+      + "\tsyscall\n";
+
+  static final String runtime32 = "\t.text\n"
+      + "slp_print:\n"
+      + "\tcmpl\t$" + (bufSize - 16) + ", slp_len\n"
+      + "\tjbe\t1f\n"
+      + "\tcall\tslp_flush\n"
+      + "1:\tpushl\t%ebx\n"
+      + "\tpushl\t%esi\n"
+      + "\tpushl\t%edi\n"
+      + "\tsubl\t$16, %esp\n"
+      // the digits go backwards at the end of a 16 bytes scratch
+      + "\tleal\t16(%esp), %edi\n"
+      + "\tmovl\t%edi, %ebx\n"
+      + "\tmovl\t32(%esp), %eax\n"
+      + "\tmovl\t%eax, %esi\n"
+      + "\ttestl\t%eax, %eax\n"
+      + "\tjns\t2f\n"
+      + "\tnegl\t%eax\n"
+      + "2:\tmovl\t$10, %ecx\n"
+      + "3:\txorl\t%edx, %edx\n"
+      + "\tdivl\t%ecx\n"
+      + "\taddb\t$48, %dl\n"
+      + "\tdecl\t%edi\n"
+      + "\tmovb\t%dl, (%edi)\n"
+      + "\ttestl\t%eax, %eax\n"
+      + "\tjnz\t3b\n"
+      + "\ttestl\t%esi, %esi\n"
+      + "\tjns\t4f\n"
+      + "\tdecl\t%edi\n"
+      + "\tmovb\t$45, (%edi)\n"
+      + "4:\tmovl\tslp_len, %edx\n"
+      + "\taddl\t$slp_buf, %edx\n"
+      + "5:\tcmpl\t%ebx, %edi\n"
+      + "\tje\t6f\n"
+      + "\tmovb\t(%edi), %cl\n"
+      + "\tmovb\t%cl, (%edx)\n"
+      + "\tincl\t%edi\n"
+      + "\tincl\t%edx\n"
+      + "\tjmp\t5b\n"
+      + "6:\tmovl\t36(%esp), %ecx\n"
+      + "\tmovb\t%cl, (%edx)\n"
+      + "\tincl\t%edx\n"
+      + "\tsubl\t$slp_buf, %edx\n"
+      + "\tmovl\t%edx, slp_len\n"
+      + "\taddl\t$16, %esp\n"
+      + "\tpopl\t%edi\n"
+      + "\tpopl\t%esi\n"
+      + "\tpopl\t%ebx\n"
+      + "\tret\n"
+      + "slp_flush:\n"
+      + "\tpushl\t%ebx\n"
+      + "\tmovl\tslp_len, %edx\n"
+      + "\tmovl\t$slp_buf, %ecx\n"
+      + "1:\ttestl\t%edx, %edx\n"
+      + "\tjz\t2f\n"
+      + "\tmovl\t$4, %eax\n" // write
+      + "\tmovl\t$1, %ebx\n"
+      + "\tint\t$0x80\n"
+      + "\ttestl\t%eax, %eax\n"
+      + "\tjle\t2f\n"
+      + "\taddl\t%eax, %ecx\n"
+      + "\tsubl\t%eax, %edx\n"
+      + "\tjmp\t1b\n"
+      + "2:\tmovl\t$0, slp_len\n"
+      + "\tpopl\t%ebx\n"
+      + "\tret\n";
+
+  static final String runtime64 = "\t.text\n"
+      + "slp_print:\n"
+      + "\tcmpl\t$" + (bufSize - 16) + ", slp_len(%rip)\n"
+      + "\tjbe\t1f\n"
+      + "\tpushq\t%rdi\n"
+      + "\tpushq\t%rsi\n"
+      + "\tcall\tslp_flush\n"
+      + "\tpopq\t%rsi\n"
+      + "\tpopq\t%rdi\n"
+      // the digits go backwards at the end of 16 bytes of the red
+      // zone, divided by 10 with a multiplication
+      + "1:\tmovq\t%rsp, %r8\n"
+      + "\tmovq\t%rsp, %r9\n"
+      + "\tmovl\t%edi, %eax\n"
+      + "\ttestl\t%eax, %eax\n"
+      + "\tjns\t2f\n"
+      + "\tnegl\t%eax\n"
+      + "2:\tmovl\t$0xcccccccd, %r10d\n"
+      + "3:\tmovl\t%eax, %ecx\n"
+      + "\timulq\t%r10, %rax\n"
+      + "\tshrq\t$35, %rax\n"
+      + "\tleal\t(%rax,%rax,4), %edx\n"
+      + "\taddl\t%edx, %edx\n"
+      + "\tsubl\t%edx, %ecx\n"
+      + "\taddb\t$48, %cl\n"
+      + "\tdecq\t%r8\n"
+      + "\tmovb\t%cl, -16(%r8)\n"
+      + "\ttestl\t%eax, %eax\n"
+      + "\tjnz\t3b\n"
+      + "\ttestl\t%edi, %edi\n"
+      + "\tjns\t4f\n"
+      + "\tdecq\t%r8\n"
+      + "\tmovb\t$45, -16(%r8)\n"
+      + "4:\tmovl\tslp_len(%rip), %edx\n"
+      + "\tleaq\tslp_buf(%rip), %r11\n"
+      + "\taddq\t%r11, %rdx\n"
+      + "5:\tcmpq\t%r9, %r8\n"
+      + "\tje\t6f\n"
+      + "\tmovb\t-16(%r8), %cl\n"
+      + "\tmovb\t%cl, (%rdx)\n"
+      + "\tincq\t%r8\n"
+      + "\tincq\t%rdx\n"
+      + "\tjmp\t5b\n"
+      + "6:\tmovb\t%sil, (%rdx)\n"
+      + "\tincq\t%rdx\n"
+      + "\tsubq\t%r11, %rdx\n"
+      + "\tmovl\t%edx, slp_len(%rip)\n"
+      + "\tret\n"
+      + "slp_flush:\n"
+      + "\tmovl\tslp_len(%rip), %edx\n"
+      + "\tleaq\tslp_buf(%rip), %rsi\n"
+      + "1:\ttestq\t%rdx, %rdx\n"
+      + "\tjz\t2f\n"
+      + "\tmovl\t$1, %eax\n" // write
+      + "\tmovl\t$1, %edi\n"
+      + "\tsyscall\n"
+      + "\ttestq\t%rax, %rax\n"
+      + "\tjle\t2f\n"
+      + "\taddq\t%rax, %rsi\n"
+      + "\tsubq\t%rax, %rdx\n"
+      + "\tjmp\t1b\n"
+      + "2:\tmovl\t$0, slp_len(%rip)\n"
+      + "\tret\n";
+
+  // pick the registers of the variables and of the temporaries
+  private void allocate(Stm.T prog)
+  {
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    countStm(prog, counts);
+    List<String> vars = new ArrayList<String>(counts.keySet());
+    vars.sort((a, b) -> counts.get(b) - counts.get(a));
+
+    homes = new HashMap<String, String>();
+    temps = new ArrayList<String>(Arrays.asList(callerSaved));
+    for (int i = 0; i < calleeSaved.length; i++) {
+      if (i < vars.size())
+        homes.put(vars.get(i), calleeSaved[i]);
+      else
+        temps.add(calleeSaved[i]);
     }
   }
 
@@ -292,57 +826,128 @@ public class Main
       System.out.println(numArgs);
     }
 
+    // fold the constants before running or compiling
+    if (Control.ConSlp.fold)
+      prog = new Fold().fold(prog);
+
     // interpret a given program
     if (Control.ConSlp.action == Control.ConSlp.T.INTERP) {
       mIdValue = new HashMap<String, Integer>();
-      interpStm(prog);
+      printer = new Printer();
+      try {
+        interpStm(prog);
+      } finally {
+        printer.flush();
+      }
     }
 
-    // compile a given SLP program to x86
-    if (Control.ConSlp.action == Control.ConSlp.T.COMPILE) {
-      ids = new HashSet<String>();
-      buf = new StringBuffer();
+    // interpret a given program, translated to closures first
+    if (Control.ConSlp.action == Control.ConSlp.T.CLOSURE) {
+      new Closure().compile(prog).run();
+    }
+
+    // compile a given SLP program to a JVM class, and run it
+    if (Control.ConSlp.action == Control.ConSlp.T.JVM) {
+      new Bytecode().run(prog);
+    }
 
-      compileStm(prog);
+    // compile a given SLP program to x86, or x86-64
+    if (Control.ConSlp.action == Control.ConSlp.T.COMPILE
+        || Control.ConSlp.action == Control.ConSlp.T.X64) {
+      x64 = Control.ConSlp.action == Control.ConSlp.T.X64;
+      calleeSaved = x64 ? calleeSaved64 : calleeSaved32;
+      callerSaved = x64 ? callerSaved64 : callerSaved32;
+      slot = x64 ? 8 : 4;
+      depth = slot * calleeSaved.length;
+      ids = new HashSet<String>();
+      busy = new HashSet<String>();
+      needs = new IdentityHashMap<Exp.T, Integer>();
+      pures = new IdentityHashMap<Exp.T, Boolean>();
       try {
-        // FileOutputStream out = new FileOutputStream();
-        FileWriter writer = new FileWriter("slp_gen.s");
-        writer
-            .write("// Automatically generated by the Tiger compiler, do NOT edit.\n\n");
-        writer.write("\t.data\n");
-        writer.write("slp_format:\n");
-        writer.write("\t.string \"%d \"\n");
-        writer.write("newline:\n");
-        writer.write("\t.string \"\\n\"\n");
-        writer.write("exception_msg:\n");
-        writer.write("\t.string \"Exception occurs!\\n\"\n");
-        for (String s : this.ids) {
-          writer.write(s + ":\n");
-          writer.write("\t.int 0\n");
+        boolean gcc = Control.ConSlp.gcc;
+        X86 x86 = gcc ? null : new X86(x64);
+        asm = new Asm(gcc || Control.ConSlp.keepasm ? "slp_gen.s" : null, x86);
+        if (x86 != null)
+          x86.emit(x64 ? start64 : start32);
+        try {
+          emit("// Automatically generated by the Tiger compiler, do NOT edit.\n\n");
+          emit("\t.text\n");
+          emit("\t.globl main\n");
+          emit("main:\n");
+          if (x64) {
+            emit("\tpushq\t%rbp\n");
+            emit("\tmovq\t%rsp, %rbp\n");
+            for (String r : calleeSaved)
+              emit("\tpushq\t" + wide(r) + "\n");
+          } else {
+            emit("\tpushl\t%ebp\n");
+            emit("\tmovl\t%esp, %ebp\n");
+            for (String r : calleeSaved)
+              emit("\tpushl\t" + r + "\n");
+          }
+
+          allocate(prog);
+          labelStm(prog);
+          for (String r : homes.values())
+            emit("\txorl\t" + r + ", " + r + "\n");
+          compileStm(prog, temps);
+
+          emit("\tjmp\texit\n");
+          emit("exception:\n");
+          // may come with anything pushed
+          emit("\tcall\tslp_flush\n");
+          if (x64) {
+            emit("\tmovl\t$1, %eax\n"); // write
+            emit("\tmovl\t$1, %edi\n");
+            emit("\tleaq\texception_msg(%rip), %rsi\n");
+            emit("\tmovl\t$" + exceptionMsg.length() + ", %edx\n");
+            emit("\tsyscall\n");
+          } else {
+            emit("\tmovl\t$4, %eax\n"); // write
+            emit("\tmovl\t$1, %ebx\n");
+            emit("\tmovl\t$exception_msg, %ecx\n");
+            emit("\tmovl\t$" + exceptionMsg.length() + ", %edx\n");
+            emit("\tint\t$0x80\n");
+          }
+          emit("\tjmp\tdone\n");
+          emit("exit:\n");
+          emit("\tcall\tslp_flush\n");
+          emit("done:\n");
+          for (int i = 0; i < calleeSaved.length; i++)
+            emit("\t" + (x64 ? "movq" : "movl") + "\t"
+                + (-slot * (i + 1)) + (x64 ? "(%rbp), " : "(%ebp), ")
+                + wide(calleeSaved[i]) + "\n");
+          emit("\txorl\t%eax, %eax\n");
+          emit("\tleave\n\tret\n\n");
+          emit(x64 ? runtime64 : runtime32);
+
+          emit("\n\t.data\n");
+          emit("slp_len:\n");
+          emit("\t.int 0\n");
+          emit("exception_msg:\n");
+          emit("\t.string \"" + exceptionMsg.replace("\n", "\\n") + "\"\n");
+          for (String s : this.ids) {
+            emit(label(s) + ":\n");
+            emit("\t.int 0\n");
+          }
+          emit("\t.lcomm\tslp_buf, " + bufSize + "\n");
+          if (x64)
+            emit("\t.section\t.note.GNU-stack,\"\",@progbits\n");
+        } finally {
+          asm.close();
         }
-        writer.write("\n\n\t.text\n");
-        writer.write("\t.globl main\n");
-        writer.write("main:\n");
-        writer.write("\tpushl\t%ebp\n");
-        writer.write("\tmovl\t%esp, %ebp\n");
-        writer.write(buf.toString());
-        writer.write("\tjp\texit\n");
-        writer.write("exception:\n");
-        writer.write("\tpushl\t$exception_msg\n");
-        writer.write("\tcall\tprintf\n");
-        writer.write("\taddl\t$4, %esp\n");
-        writer.write("exit:\n");
-        writer.write("\tleave\n\tret\n\n");
-        writer.close();
-        Process child = Runtime.getRuntime().exec("gcc -m32 slp_gen.s");
-        child.waitFor();
-        if (!Control.ConSlp.keepasm)
-          Runtime.getRuntime().exec("rm -rf slp_gen.s");
+        if (gcc) {
+          Process child = Runtime.getRuntime().exec(
+              x64 ? "gcc slp_gen.s" : "gcc -m32 slp_gen.s");
+          child.waitFor();
+          if (!Control.ConSlp.keepasm)
+            new File("slp_gen.s").delete();
+        } else
+          Elf.write("a.out", x86);
       } catch (Exception e) {
         e.printStackTrace();
         System.exit(0);
       }
-      // System.out.println(buf.toString());
     }
   }
 }
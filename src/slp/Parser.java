@@ -0,0 +1,339 @@
+package slp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import slp.Slp.Exp;
+import slp.Slp.ExpList;
+import slp.Slp.Stm;
+import util.Diagnostic;
+import util.Symbol;
+
+// The text form of straight-line programs:
+//
+//   Prog    -> Stms EOF
+//   Stms    -> Stm (";" Stm)*
+//   Stm     -> id ":=" Exp
+//            | "print" "(" Exp ("," Exp)* ")"
+//   Exp     -> Term (("+" | "-") Term)*
+//   Term    -> Factor (("*" | "/") Factor)*
+//   Factor  -> id | num | "-" num
+//            | "(" Exp ")"
+//            | "(" Stms "," Exp ")"
+//
+// with "//" comments to the end of the line. The operators are left
+// associative, "*" and "/" binding tighter than "+" and "-".
+//
+// The bytes are scanned in place, one token ahead of the parser, and
+// the statement lists are read with loops, so the length of a
+// program costs no Java stack; only parentheses nest. The first
+// syntax error stops the parse.
+public class Parser
+{
+  // Thrown on the first syntax error.
+  @SuppressWarnings("serial")
+  public static class SyntaxError extends RuntimeException
+  {
+    public Diagnostic diagnostic;
+
+    SyntaxError(Diagnostic diagnostic)
+    {
+      super(diagnostic.toString());
+      this.diagnostic = diagnostic;
+    }
+  }
+
+  enum Kind
+  {
+    ID, NUM, PRINT, ASSIGN, SEMI, COMMA, LPAREN, RPAREN, ADD, SUB, TIMES,
+    DIVIDE, EOF,
+  }
+
+  private String fname;
+  private byte[] buf;
+  private int pos;
+  private int lineNum;
+  private int lineStart; // position of the first character of the line
+
+  // the current token
+  private Kind current;
+  private String id;
+  private int num;
+  private int tokLineNum;
+  private int tokColNum;
+
+  // one String per distinct name, found without allocating
+  private Symbol.Cache names;
+
+  public Parser(String fname, byte[] buf)
+  {
+    this.fname = fname;
+    this.buf = buf;
+    this.pos = 0;
+    this.lineNum = 1;
+    this.lineStart = 0;
+    this.names = new Symbol.Cache();
+    advance();
+  }
+
+  // ////////////////////////////////////////
+  // the scanner
+  private SyntaxError error(String message)
+  {
+    return new SyntaxError(new Diagnostic(fname, tokLineNum, tokColNum,
+        message));
+  }
+
+  private void skipBlanks()
+  {
+    while (pos < buf.length) {
+      int c = buf[pos];
+      if (c == '\n') {
+        pos++;
+        lineNum++;
+        lineStart = pos;
+      } else if (c == ' ' || c == '\t' || c == '\r')
+        pos++;
+      else if (c == '/' && pos + 1 < buf.length && buf[pos + 1] == '/') {
+        while (pos < buf.length && buf[pos] != '\n')
+          pos++;
+      } else
+        return;
+    }
+  }
+
+  private static boolean isLetter(int c)
+  {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+  }
+
+  private static boolean isDigit(int c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  // the digits at "pos", negated if "negative", as an int
+  private int number(boolean negative)
+  {
+    long n = 0;
+    while (pos < buf.length && isDigit(buf[pos])) {
+      n = n * 10 + (buf[pos++] - '0');
+      if (n > 1L + Integer.MAX_VALUE)
+        throw error("number too large");
+    }
+    if (negative)
+      n = -n;
+    if (n > Integer.MAX_VALUE)
+      throw error("number too large");
+    if (pos < buf.length && isLetter(buf[pos]))
+      throw error("bad number");
+    return (int) n;
+  }
+
+  private void advance()
+  {
+    skipBlanks();
+    tokLineNum = lineNum;
+    tokColNum = pos - lineStart + 1;
+    if (pos >= buf.length) {
+      current = Kind.EOF;
+      return;
+    }
+    int c = buf[pos];
+    if (isLetter(c)) {
+      int start = pos;
+      while (pos < buf.length && (isLetter(buf[pos]) || isDigit(buf[pos])))
+        pos++;
+      if (pos - start == 5 && buf[start] == 'p' && buf[start + 1] == 'r'
+          && buf[start + 2] == 'i' && buf[start + 3] == 'n'
+          && buf[start + 4] == 't') {
+        current = Kind.PRINT;
+        return;
+      }
+      id = names.intern(buf, start, pos - start).name;
+      current = Kind.ID;
+      return;
+    }
+    if (isDigit(c)) {
+      num = number(false);
+      current = Kind.NUM;
+      return;
+    }
+    pos++;
+    switch (c) {
+    case ':':
+      if (pos < buf.length && buf[pos] == '=') {
+        pos++;
+        current = Kind.ASSIGN;
+        return;
+      }
+      break;
+    case ';':
+      current = Kind.SEMI;
+      return;
+    case ',':
+      current = Kind.COMMA;
+      return;
+    case '(':
+      current = Kind.LPAREN;
+      return;
+    case ')':
+      current = Kind.RPAREN;
+      return;
+    case '+':
+      current = Kind.ADD;
+      return;
+    case '-':
+      current = Kind.SUB;
+      return;
+    case '*':
+      current = Kind.TIMES;
+      return;
+    case '/':
+      current = Kind.DIVIDE;
+      return;
+    default:
+      break;
+    }
+    throw error("bad character: " + (char) (c & 0xff));
+  }
+
+  private void eatToken(Kind kind)
+  {
+    if (current != kind)
+      throw error("Expects: " + kind + ", but got: " + current);
+    advance();
+  }
+
+  // Whether the identifier just scanned is followed by ":=", that
+  // is, starts an assignment rather than an expression.
+  private boolean assignFollows()
+  {
+    // scan the next token, and come back
+    int savedPos = pos, savedLineNum = lineNum, savedLineStart = lineStart;
+    int savedLine = tokLineNum, savedCol = tokColNum;
+    String savedId = id;
+    advance();
+    boolean assign = current == Kind.ASSIGN;
+    pos = savedPos;
+    lineNum = savedLineNum;
+    lineStart = savedLineStart;
+    tokLineNum = savedLine;
+    tokColNum = savedCol;
+    id = savedId;
+    current = Kind.ID;
+    return assign;
+  }
+
+  // ////////////////////////////////////////
+  // the parser
+  private Exp.T parseFactor()
+  {
+    switch (current) {
+    case ID: {
+      Exp.T e = new Exp.Id(id);
+      advance();
+      return e;
+    }
+    case NUM: {
+      Exp.T e = new Exp.Num(num);
+      advance();
+      return e;
+    }
+    case SUB:
+      // a negative literal: the "-" right against the digits
+      if (pos < buf.length && isDigit(buf[pos])) {
+        Exp.T e = new Exp.Num(number(true));
+        advance();
+        return e;
+      }
+      break;
+    case LPAREN:
+      advance();
+      if (current == Kind.PRINT || current == Kind.ID && assignFollows()) {
+        Stm.T stm = parseStms();
+        eatToken(Kind.COMMA);
+        Exp.T e = new Exp.Eseq(stm, parseExp());
+        eatToken(Kind.RPAREN);
+        return e;
+      }
+      Exp.T e = parseExp();
+      eatToken(Kind.RPAREN);
+      return e;
+    default:
+      break;
+    }
+    throw error("Syntax error: unexpected " + current);
+  }
+
+  private Exp.T parseTerm()
+  {
+    Exp.T e = parseFactor();
+    while (current == Kind.TIMES || current == Kind.DIVIDE) {
+      Exp.OP_T op = current == Kind.TIMES ? Exp.OP_T.TIMES : Exp.OP_T.DIVIDE;
+      advance();
+      e = new Exp.Op(op, e, parseFactor());
+    }
+    return e;
+  }
+
+  private Exp.T parseExp()
+  {
+    Exp.T e = parseTerm();
+    while (current == Kind.ADD || current == Kind.SUB) {
+      Exp.OP_T op = current == Kind.ADD ? Exp.OP_T.ADD : Exp.OP_T.SUB;
+      advance();
+      e = new Exp.Op(op, e, parseTerm());
+    }
+    return e;
+  }
+
+  private Stm.T parseStm()
+  {
+    if (current == Kind.PRINT) {
+      advance();
+      eatToken(Kind.LPAREN);
+      List<Exp.T> exps = new ArrayList<Exp.T>();
+      exps.add(parseExp());
+      while (current == Kind.COMMA) {
+        advance();
+        exps.add(parseExp());
+      }
+      eatToken(Kind.RPAREN);
+      ExpList.T list = new ExpList.Last(exps.get(exps.size() - 1));
+      for (int i = exps.size() - 2; i >= 0; i--)
+        list = new ExpList.Pair(exps.get(i), list);
+      return new Stm.Print(list);
+    }
+    if (current == Kind.ID) {
+      String name = id;
+      advance();
+      eatToken(Kind.ASSIGN);
+      return new Stm.Assign(name, parseExp());
+    }
+    throw error("Syntax error: unexpected " + current);
+  }
+
+  // statements separated by ";", as a right-nested Compound chain
+  private Stm.T parseStms()
+  {
+    List<Stm.T> stms = new ArrayList<Stm.T>();
+    stms.add(parseStm());
+    while (current == Kind.SEMI) {
+      advance();
+      stms.add(parseStm());
+    }
+    Stm.T prog = stms.get(stms.size() - 1);
+    for (int i = stms.size() - 2; i >= 0; i--)
+      prog = new Stm.Compound(stms.get(i), prog);
+    return prog;
+  }
+
+  public Stm.T parse()
+  {
+    Stm.T prog = parseStms();
+    if (current != Kind.EOF)
+      throw error("Expects: EOF, but got: " + current);
+    return prog;
+  }
+}
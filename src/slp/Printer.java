@@ -0,0 +1,62 @@
+package slp;
+
+// The output of the interpreters. Values are turned into ASCII in a
+// buffer, which goes to System.out in one write when it fills up
+// and when the program is done, instead of one print per value.
+public class Printer
+{
+  // The output of the program compiled to a JVM class by "Bytecode",
+  // whose code calls the static methods below. One such program runs
+  // at a time.
+  static Printer jvm;
+
+  private byte[] buf;
+  private int len;
+
+  public Printer()
+  {
+    this.buf = new byte[1 << 16];
+    this.len = 0;
+  }
+
+  // print "n" followed by "sep"
+  public void print(int n, char sep)
+  {
+    if (len > buf.length - 12)
+      flush();
+    long v = n;
+    if (v < 0) {
+      buf[len++] = '-';
+      v = -v;
+    }
+    int digits = 1;
+    for (long t = v; t >= 10; t /= 10)
+      digits++;
+    int p = len + digits;
+    len = p;
+    do {
+      buf[--p] = (byte) ('0' + v % 10);
+      v /= 10;
+    } while (v != 0);
+    buf[len++] = (byte) sep;
+  }
+
+  // "n" followed by a blank, for the code of "Bytecode"
+  public static void print(int n)
+  {
+    jvm.print(n, ' ');
+  }
+
+  // "n" followed by a newline, for the code of "Bytecode"
+  public static void println(int n)
+  {
+    jvm.print(n, '\n');
+  }
+
+  public void flush()
+  {
+    System.out.write(buf, 0, len);
+    System.out.flush();
+    len = 0;
+  }
+}
@@ -1,6 +1,9 @@
 package slp;
 
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 public class Slp
 {
@@ -151,6 +154,44 @@ public class Slp
       }
     }
 
+    // The statements in a tree of Compounds, in order. The walk keeps
+    // its own stack rather than recursing, as generated programs nest
+    // Compounds far deeper than the Java stack goes; a right-nested
+    // chain takes no more than two entries.
+    public static Iterable<T> statements(T prog)
+    {
+      return () -> new Walk(prog);
+    }
+
+    static class Walk implements Iterator<T>
+    {
+      private ArrayDeque<T> work;
+
+      Walk(T prog)
+      {
+        this.work = new ArrayDeque<T>();
+        this.work.push(prog);
+      }
+
+      @Override
+      public boolean hasNext()
+      {
+        while (!work.isEmpty() && work.peek() instanceof Compound) {
+          Compound s = (Compound) work.pop();
+          work.push(s.s2);
+          work.push(s.s1);
+        }
+        return !work.isEmpty();
+      }
+
+      @Override
+      public T next()
+      {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        return work.pop();
+      }
+    }
   }// end of statement
 
 }
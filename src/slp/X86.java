@@ -0,0 +1,978 @@
+package slp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// An assembler, in memory, for the x86 and x86-64 code the SLP
+// compiler generates: the AT&T syntax of the GNU assembler, the
+// instructions Main and its runtime use, and the directives .text,
+// .data, .int, .string, .lcomm (.globl and .section are ignored).
+// Labels are names or the numbers of GNU local labels (1:, jmp 1f).
+//
+// The text is fed in as it is generated, and assembled a line at a
+// time. Every jump and call takes a 32 bits displacement, so that
+// the size of an instruction never depends on where its target
+// lies: one pass is enough, the references to labels being patched
+// in by link() once Elf has laid out the sections.
+public class X86
+{
+  // a section: its bytes (none for the bss) and its size
+  static class Section
+  {
+    byte[] bytes = new byte[4096];
+    int size = 0;
+    boolean bss;
+
+    void put(int b)
+    {
+      if (size == bytes.length)
+        bytes = Arrays.copyOf(bytes, 2 * size);
+      bytes[size++] = (byte) b;
+    }
+
+    void put(byte[] b, int len)
+    {
+      while (size + len > bytes.length)
+        bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+      System.arraycopy(b, 0, bytes, size, len);
+      size += len;
+    }
+
+    void putInt(int off, int v)
+    {
+      bytes[off] = (byte) v;
+      bytes[off + 1] = (byte) (v >> 8);
+      bytes[off + 2] = (byte) (v >> 16);
+      bytes[off + 3] = (byte) (v >> 24);
+    }
+  }
+
+  final boolean x64;
+  final Section text = new Section();
+  final Section data = new Section();
+  final Section bss = new Section();
+  private Section section = text;
+
+  // the labels: name to index, and for each its section and offset
+  private Map<String, Integer> labels = new HashMap<String, Integer>();
+  private List<String> names = new ArrayList<String>();
+  private List<Section> labelSections = new ArrayList<Section>();
+  private int[] labelOffsets = new int[256];
+
+  // GNU local labels: how many times each number has been defined
+  private Map<String, Integer> locals = new HashMap<String, Integer>();
+
+  // The references to labels, to patch in: where the 4 bytes are
+  // (in "text" or "data"), which label, and for a PC relative one
+  // how far the end of the instruction is from the 4 bytes.
+  private int fixups = 0;
+  private boolean[] fixupInData = new boolean[256];
+  private int[] fixupOffsets = new int[256];
+  private int[] fixupLabels = new int[256];
+  private int[] fixupPc = new int[256]; // -1 if absolute
+
+  // the instruction being assembled, and its references
+  private byte[] ins = new byte[16];
+  private int len;
+  private int[] insFixups = new int[6]; // offset in "ins", label, pc
+  private int insFixupCount;
+
+  // the line being received, when it comes in pieces
+  private StringBuilder line = new StringBuilder();
+
+  // the line being assembled: "source" from "from" to "to"
+  private String source;
+  private int from, to;
+
+  // the operands of the instruction, reused from line to line
+  private Operand[] operands = { new Operand(), new Operand(),
+      new Operand() };
+  private int operandCount;
+
+  public X86(boolean x64)
+  {
+    this.x64 = x64;
+    this.bss.bss = true;
+  }
+
+  // ////////////////////////////////////////
+  // the input
+  //
+  // A line is scanned where it lies in the String handed to emit(),
+  // without trimming or splitting it: only the mnemonic and the
+  // labels become Strings.
+  public void emit(String s)
+  {
+    int start = 0;
+    int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (s.charAt(i) != '\n')
+        continue;
+      if (line.length() == 0)
+        assemble(s, start, i);
+      else {
+        line.append(s, start, i);
+        assemble(line.toString(), 0, line.length());
+        line.setLength(0);
+      }
+      start = i + 1;
+    }
+    line.append(s, start, n);
+  }
+
+  private static IllegalArgumentException error(String message)
+  {
+    return new IllegalArgumentException("x86: can not assemble: " + message);
+  }
+
+  // an error in the line being assembled
+  private IllegalArgumentException error()
+  {
+    return error(source.substring(from, to).trim());
+  }
+
+  private static boolean isBlank(char c)
+  {
+    return c == ' ' || c == '\t' || c == '\r';
+  }
+
+  private int skipBlanks(int i)
+  {
+    while (i < to && isBlank(source.charAt(i)))
+      i++;
+    return i;
+  }
+
+  // the end of "from" to "to" without its trailing blanks
+  private int trimEnd(int from, int to)
+  {
+    while (to > from && isBlank(source.charAt(to - 1)))
+      to--;
+    return to;
+  }
+
+  private void assemble(String s, int from, int to)
+  {
+    this.source = s;
+    this.from = from;
+    this.to = to;
+    int i = skipBlanks(from);
+    if (i == to || s.startsWith("//", i))
+      return;
+
+    // labels
+    int colon;
+    while ((colon = labelEnd(i)) > 0) {
+      define(s.substring(i, colon));
+      i = skipBlanks(colon + 1);
+    }
+    if (i == to)
+      return;
+
+    int space = i;
+    while (space < to && !isBlank(s.charAt(space)))
+      space++;
+    String op = s.substring(i, space);
+    i = skipBlanks(space);
+
+    if (op.charAt(0) == '.') {
+      directive(op, split(s.substring(i, trimEnd(i, to))));
+      return;
+    }
+    // the operands, split on the commas outside parentheses
+    operandCount = 0;
+    int depth = 0;
+    int start = i;
+    for (; i <= to; i++) {
+      char c = i < to ? s.charAt(i) : ',';
+      if (c == '(')
+        depth++;
+      else if (c == ')')
+        depth--;
+      else if (c == ',' && depth == 0) {
+        int end = trimEnd(start, i);
+        if (end == start) {
+          if (i == to && operandCount == 0)
+            break;
+          throw error();
+        }
+        if (operandCount == operands.length)
+          throw error();
+        operand(operands[operandCount++], start, end);
+        start = skipBlanks(i + 1);
+      }
+    }
+    len = 0;
+    insFixupCount = 0;
+    instruction(op, operands, operandCount);
+    commit();
+  }
+
+  // the position of the ":" ending a label at "i", or -1
+  private int labelEnd(int i)
+  {
+    for (; i < to; i++) {
+      char c = source.charAt(i);
+      if (c == ':')
+        return i;
+      if (!(Character.isLetterOrDigit(c) || c == '_' || c == '.'))
+        return -1;
+    }
+    return -1;
+  }
+
+  // the arguments of a directive, split on the commas outside quotes
+  private static List<String> split(String s)
+  {
+    List<String> args = new ArrayList<String>();
+    if (s.isEmpty())
+      return args;
+    boolean quoted = false;
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' && (i == 0 || s.charAt(i - 1) != '\\'))
+        quoted = !quoted;
+      else if (c == ',' && !quoted) {
+        args.add(s.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    args.add(s.substring(start).trim());
+    return args;
+  }
+
+  // ////////////////////////////////////////
+  // labels
+  private int label(String name)
+  {
+    Integer n = labels.get(name);
+    if (n == null) {
+      n = names.size();
+      labels.put(name, n);
+      names.add(name);
+      labelSections.add(null);
+      if (n == labelOffsets.length)
+        labelOffsets = Arrays.copyOf(labelOffsets, 2 * n);
+    }
+    return n;
+  }
+
+  private void define(String name)
+  {
+    if (Character.isDigit(name.charAt(0))) {
+      // the n-th definition of a local label is named "n~<n>"
+      int count = locals.getOrDefault(name, 0) + 1;
+      locals.put(name, count);
+      name = name + "~" + count;
+    }
+    int n = label(name);
+    if (labelSections.get(n) != null)
+      throw error(name + ": defined twice");
+    labelSections.set(n, section);
+    labelOffsets[n] = section.size;
+  }
+
+  // the label referred to by "name", "1f" and "1b" included
+  private int reference(String name)
+  {
+    char last = name.charAt(name.length() - 1);
+    if (Character.isDigit(name.charAt(0)) && (last == 'f' || last == 'b')) {
+      String local = name.substring(0, name.length() - 1);
+      int count = locals.getOrDefault(local, 0);
+      name = local + "~" + (last == 'f' ? count + 1 : count);
+    }
+    return label(name);
+  }
+
+  // ////////////////////////////////////////
+  // operands
+  static final int REG = 0, IMM = 1, MEM = 2;
+  static final int RIP = 16;
+
+  static class Operand
+  {
+    int kind;
+    int reg; // REG: the register; MEM: the base, -1 if none
+    int size; // REG: 1, 4 or 8 bytes
+    int index = -1; // MEM
+    int scale = 1; // MEM
+    long value; // IMM: the value; MEM: the displacement
+    int label = -1; // IMM, MEM: a label, added to "value"
+  }
+
+  // The registers, in an open addressed table keyed by their names
+  // packed in an int, a character a byte (none is longer than 4), so
+  // that an operand is looked up where it lies. A value is the
+  // register, and its size times 256.
+  static final int[] registerKeys = new int[128];
+  static final int[] registerValues = new int[128];
+  static {
+    String[] r32 = { "eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi" };
+    String[] r64 = { "rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi" };
+    String[] r8 = { "al", "cl", "dl", "bl", "spl", "bpl", "sil", "dil" };
+    for (int i = 0; i < 8; i++) {
+      addRegister(r32[i], i, 4);
+      addRegister(r64[i], i, 8);
+      addRegister(r8[i], i, 1);
+    }
+    for (int i = 8; i < 16; i++) {
+      addRegister("r" + i + "d", i, 4);
+      addRegister("r" + i, i, 8);
+      addRegister("r" + i + "b", i, 1);
+    }
+    addRegister("rip", RIP, 8);
+  }
+
+  private static int registerKey(String s, int from, int to)
+  {
+    if (to - from > 4)
+      return 0;
+    int key = 0;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c >= 128)
+        return 0;
+      key = key << 8 | c;
+    }
+    return key;
+  }
+
+  private static int registerSlot(int key)
+  {
+    int i = (key * 0x9e3779b9) >>> 25;
+    while (registerKeys[i] != 0 && registerKeys[i] != key)
+      i = (i + 1) & 127;
+    return i;
+  }
+
+  private static void addRegister(String name, int reg, int size)
+  {
+    int key = registerKey(name, 0, name.length());
+    int i = registerSlot(key);
+    registerKeys[i] = key;
+    registerValues[i] = reg | size << 8;
+  }
+
+  // the register named from "from" ("%" included) to "to", as its
+  // number and its size times 256
+  private int register(int from, int to)
+  {
+    if (from == to || source.charAt(from) != '%')
+      throw error();
+    int key = registerKey(source, from + 1, to);
+    int i = registerSlot(key);
+    if (key == 0 || registerKeys[i] != key)
+      throw error();
+    int r = registerValues[i];
+    if (!x64 && ((r & 0xff) >= 8 || r >> 8 == 8))
+      throw error();
+    return r;
+  }
+
+  // a decimal or hexadecimal number, rather than a label like "1f"
+  private boolean isNumber(int from, int to)
+  {
+    int i = from;
+    if (i < to && source.charAt(i) == '-')
+      i++;
+    boolean hex = source.startsWith("0x", i);
+    if (hex)
+      i += 2;
+    if (i == to)
+      return false;
+    for (; i < to; i++) {
+      char c = source.charAt(i);
+      if (!(c >= '0' && c <= '9'
+          || hex && (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')))
+        return false;
+    }
+    return true;
+  }
+
+  // the number from "from" to "to", checked by isNumber()
+  private long number(int from, int to)
+  {
+    int i = from;
+    boolean negative = source.charAt(i) == '-';
+    if (negative)
+      i++;
+    int radix = 10;
+    if (source.startsWith("0x", i)) {
+      radix = 16;
+      i += 2;
+    }
+    long v = 0;
+    for (; i < to; i++) {
+      v = v * radix + Character.digit(source.charAt(i), 16);
+      if (v > 0xffffffffL)
+        throw error();
+    }
+    return negative ? -v : v;
+  }
+
+  // an immediate or a displacement: a number or a label
+  private void value(Operand o, int from, int to)
+  {
+    if (isNumber(from, to))
+      o.value = number(from, to);
+    else
+      o.label = reference(source.substring(from, to));
+  }
+
+  private void operand(Operand o, int from, int to)
+  {
+    o.reg = -1;
+    o.size = 0;
+    o.index = -1;
+    o.scale = 1;
+    o.value = 0;
+    o.label = -1;
+    char c = source.charAt(from);
+    if (c == '%') {
+      int r = register(from, to);
+      o.kind = REG;
+      o.reg = r & 0xff;
+      o.size = r >> 8;
+    } else if (c == '$') {
+      o.kind = IMM;
+      value(o, from + 1, to);
+    } else {
+      // disp(base, index, scale), or a bare label or address
+      o.kind = MEM;
+      int paren = source.indexOf('(', from);
+      if (paren < 0 || paren >= to)
+        paren = to;
+      if (paren > from)
+        value(o, from, paren);
+      if (paren == to)
+        return;
+      if (source.charAt(to - 1) != ')')
+        throw error();
+      // up to three parts between the parentheses
+      int part = 0;
+      int start = skipBlanks(paren + 1);
+      for (int i = start; i < to; i++) {
+        c = source.charAt(i);
+        if (c != ',' && c != ')')
+          continue;
+        int end = trimEnd(start, i);
+        if (part == 0) {
+          if (end > start)
+            o.reg = register(start, end) & 0xff;
+        } else if (part == 1)
+          o.index = register(start, end) & 0xff;
+        else if (part == 2 && isNumber(start, end))
+          o.scale = (int) number(start, end);
+        else
+          throw error();
+        part++;
+        start = skipBlanks(i + 1);
+      }
+    }
+  }
+
+  // ////////////////////////////////////////
+  // encoding
+  private void put(int b)
+  {
+    ins[len++] = (byte) b;
+  }
+
+  private void putInt(long v)
+  {
+    put((int) v);
+    put((int) (v >> 8));
+    put((int) (v >> 16));
+    put((int) (v >> 24));
+  }
+
+  // 4 bytes referring to a label: absolute, or relative to the end
+  // of the instruction if "pc"
+  private void putLabel(int label, long addend, boolean pc)
+  {
+    insFixups[3 * insFixupCount] = len;
+    insFixups[3 * insFixupCount + 1] = label;
+    insFixups[3 * insFixupCount + 2] = pc ? 1 : 0;
+    insFixupCount++;
+    putInt(addend);
+  }
+
+  private static boolean isByte(long v)
+  {
+    return v >= -128 && v <= 127;
+  }
+
+  // Prefix, opcode and ModR/M (and SIB, displacement) of an
+  // instruction whose ModR/M names register (or opcode extension)
+  // "reg" and operand "rm". "size" is the size of the operands, in
+  // bytes.
+  private void modrm(int opcode, int reg, Operand rm, int size)
+  {
+    if (rm.kind == IMM)
+      throw new IllegalArgumentException("x86: immediate operand");
+    int rex = 0;
+    if (size == 8)
+      rex |= 0x48;
+    if (reg >= 8)
+      rex |= 0x44;
+    if (rm.kind == REG) {
+      if (rm.reg >= 8)
+        rex |= 0x41;
+      // %spl, %bpl, %sil and %dil exist only with a prefix
+      if (size == 1 && rm.reg >= 4)
+        rex |= 0x40;
+    } else {
+      if (rm.reg >= 8 && rm.reg != RIP)
+        rex |= 0x41;
+      if (rm.index >= 8)
+        rex |= 0x42;
+    }
+    if (size == 1 && reg >= 4 && reg < 8 && opcodeTakesRegister)
+      rex |= 0x40;
+    if (rex != 0) {
+      if (!x64)
+        throw new IllegalArgumentException("x86: 64 bits operand");
+      put(rex);
+    }
+    if (opcode > 0xff)
+      put(opcode >> 8);
+    put(opcode & 0xff);
+
+    int r = (reg & 7) << 3;
+    if (rm.kind == REG) {
+      put(0xc0 | r | (rm.reg & 7));
+      return;
+    }
+    if (rm.reg == RIP) {
+      put(r | 5);
+      if (rm.label >= 0)
+        putLabel(rm.label, rm.value, true);
+      else
+        putInt(rm.value);
+      return;
+    }
+    if (rm.reg < 0 && rm.index < 0) {
+      // an absolute address
+      if (x64) {
+        put(r | 4);
+        put(0x25);
+      } else
+        put(r | 5);
+      if (rm.label >= 0)
+        putLabel(rm.label, rm.value, false);
+      else
+        putInt(rm.value);
+      return;
+    }
+    int base = rm.reg < 0 ? 5 : rm.reg & 7;
+    boolean sib = rm.index >= 0 || base == 4 || rm.reg < 0;
+    int mod;
+    if (rm.reg < 0)
+      mod = 0; // disp32, no base
+    else if (rm.label < 0 && rm.value == 0 && base != 5)
+      mod = 0;
+    else if (rm.label < 0 && isByte(rm.value))
+      mod = 1;
+    else
+      mod = 2;
+    put(mod << 6 | r | (sib ? 4 : base));
+    if (sib) {
+      int scale = rm.scale == 8 ? 3 : rm.scale == 4 ? 2 : rm.scale == 2 ? 1 : 0;
+      put(scale << 6 | (rm.index < 0 ? 4 : rm.index & 7) << 3 | base);
+    }
+    if (mod == 1)
+      put((int) rm.value);
+    else if (mod == 2 || rm.reg < 0) {
+      if (rm.label >= 0)
+        putLabel(rm.label, rm.value, false);
+      else
+        putInt(rm.value);
+    }
+  }
+
+  // whether the "reg" of the next modrm() is a register, rather than
+  // an opcode extension
+  private boolean opcodeTakesRegister;
+
+  private void rr(int opcode, int reg, Operand rm, int size)
+  {
+    opcodeTakesRegister = true;
+    modrm(opcode, reg, rm, size);
+  }
+
+  private void ext(int opcode, int extension, Operand rm, int size)
+  {
+    opcodeTakesRegister = false;
+    modrm(opcode, extension, rm, size);
+  }
+
+  private void imm(Operand o, int bytes)
+  {
+    if (bytes == 1)
+      put((int) o.value);
+    else if (o.label >= 0)
+      putLabel(o.label, o.value, false);
+    else
+      putInt(o.value);
+  }
+
+  // a jump or a call to a label
+  private void branch(int opcode, Operand[] args, int n)
+  {
+    if (n != 1 || args[0].kind != MEM || args[0].reg >= 0
+        || args[0].label < 0)
+      throw error();
+    if (opcode > 0xff)
+      put(opcode >> 8);
+    put(opcode & 0xff);
+    putLabel(args[0].label, 0, true);
+  }
+
+  // the condition codes of the conditional jumps
+  static final Map<String, Integer> conditions = new HashMap<String, Integer>();
+  static {
+    String[][] cc = { { "o" }, { "no" }, { "b", "c", "nae" },
+        { "ae", "nb", "nc" }, { "e", "z" }, { "ne", "nz" }, { "be", "na" },
+        { "a", "nbe" }, { "s" }, { "ns" }, { "p", "pe" }, { "np", "po" },
+        { "l", "nge" }, { "ge", "nl" }, { "le", "ng" }, { "g", "nle" } };
+    for (int i = 0; i < cc.length; i++)
+      for (String c : cc[i])
+        conditions.put(c, i);
+  }
+
+  // the arithmetic instructions with the same forms, and their
+  // opcode extensions
+  static final Map<String, Integer> alu = new HashMap<String, Integer>();
+  static {
+    String[] ops = { "add", "or", "adc", "sbb", "and", "sub", "xor", "cmp" };
+    for (int i = 0; i < ops.length; i++)
+      alu.put(ops[i], i);
+  }
+
+  static final Map<String, Integer> unary = new HashMap<String, Integer>();
+  static {
+    unary.put("not", 2);
+    unary.put("neg", 3);
+    unary.put("mul", 4);
+    unary.put("div", 6);
+    unary.put("idiv", 7);
+  }
+
+  static final Map<String, Integer> shifts = new HashMap<String, Integer>();
+  static {
+    shifts.put("shl", 4);
+    shifts.put("sal", 4);
+    shifts.put("shr", 5);
+    shifts.put("sar", 7);
+  }
+
+  private void instruction(String op, Operand[] a, int count)
+  {
+    // no operand size to find out
+    switch (op) {
+    case "ret":
+      put(0xc3);
+      return;
+    case "leave":
+      put(0xc9);
+      return;
+    case "cltd":
+      put(0x99);
+      return;
+    case "cltq":
+      put(0x48);
+      put(0x98);
+      return;
+    case "syscall":
+      put(0x0f);
+      put(0x05);
+      return;
+    case "int":
+      if (count != 1 || a[0].kind != IMM)
+        throw error();
+      put(0xcd);
+      put((int) a[0].value);
+      return;
+    case "call":
+      branch(0xe8, a, count);
+      return;
+    case "jmp":
+      branch(0xe9, a, count);
+      return;
+    default:
+      break;
+    }
+    if (op.charAt(0) == 'j') {
+      Integer cc = conditions.get(op.substring(1));
+      if (cc == null)
+        throw error();
+      branch(0x0f80 + cc, a, count);
+      return;
+    }
+
+    char suffix = op.charAt(op.length() - 1);
+    int size = suffix == 'b' ? 1 : suffix == 'l' ? 4 : suffix == 'q' ? 8 : 0;
+    if (size == 0 || size == 8 && !x64)
+      throw error();
+    String base = op.substring(0, op.length() - 1);
+    int w = size == 1 ? 0 : 1; // the low bit of most opcodes
+
+    Integer n;
+    if ((n = alu.get(base)) != null && count == 2) {
+      Operand src = a[0], dst = a[1];
+      if (src.kind == IMM) {
+        if (size == 1) {
+          ext(0x80, n, dst, size);
+          imm(src, 1);
+        } else if (src.label < 0 && isByte(src.value)) {
+          ext(0x83, n, dst, size);
+          imm(src, 1);
+        } else {
+          ext(0x81, n, dst, size);
+          imm(src, 4);
+        }
+      } else if (src.kind == REG)
+        rr(n * 8 + w, src.reg, dst, size);
+      else if (dst.kind == REG)
+        rr(n * 8 + 2 + w, dst.reg, src, size);
+      else
+        throw error();
+      return;
+    }
+    if ((n = unary.get(base)) != null && count == 1) {
+      ext(0xf6 + w, n, a[0], size);
+      return;
+    }
+    if ((n = shifts.get(base)) != null && count == 2 && a[0].kind == IMM) {
+      ext(0xc0 + w, n, a[1], size);
+      imm(a[0], 1);
+      return;
+    }
+
+    switch (base) {
+    case "mov":
+      if (count != 2)
+        break;
+      if (a[0].kind == IMM) {
+        if (a[1].kind == REG && size == 4) {
+          // movl $imm, %reg: the register in the opcode
+          if (a[1].reg >= 8)
+            put(0x41);
+          put(0xb8 + (a[1].reg & 7));
+          imm(a[0], 4);
+        } else {
+          ext(0xc6 + w, 0, a[1], size);
+          imm(a[0], size == 1 ? 1 : 4);
+        }
+        return;
+      }
+      if (a[0].kind == REG) {
+        rr(0x88 + w, a[0].reg, a[1], size);
+        return;
+      }
+      if (a[1].kind == REG) {
+        rr(0x8a + w, a[1].reg, a[0], size);
+        return;
+      }
+      break;
+    case "lea":
+      if (count == 2 && a[0].kind == MEM && a[1].kind == REG) {
+        rr(0x8d, a[1].reg, a[0], size);
+        return;
+      }
+      break;
+    case "test":
+      if (count == 2 && a[0].kind == REG) {
+        rr(0x84 + w, a[0].reg, a[1], size);
+        return;
+      }
+      break;
+    case "imul":
+      if (size == 1)
+        break;
+      if (count == 2 && a[0].kind != IMM && a[1].kind == REG) {
+        rr(0x0faf, a[1].reg, a[0], size);
+        return;
+      }
+      if (a[0].kind == IMM && (count == 2 && a[1].kind == REG
+          || count == 3 && a[2].kind == REG)) {
+        // imull $imm, src, dst; the source is the destination if left out
+        Operand dst = a[count - 1];
+        Operand src = a[1];
+        boolean small = a[0].label < 0 && isByte(a[0].value);
+        rr(small ? 0x6b : 0x69, dst.reg, src, size);
+        imm(a[0], small ? 1 : 4);
+        return;
+      }
+      break;
+    case "inc":
+    case "dec":
+      if (count == 1) {
+        ext(0xfe + w, base.equals("inc") ? 0 : 1, a[0], size);
+        return;
+      }
+      break;
+    case "push":
+    case "pop":
+      if (count != 1 || size != (x64 ? 8 : 4))
+        break;
+      boolean push = base.equals("push");
+      if (a[0].kind == REG) {
+        if (a[0].reg >= 8)
+          put(0x41);
+        put((push ? 0x50 : 0x58) + (a[0].reg & 7));
+        return;
+      }
+      if (a[0].kind == IMM && push) {
+        boolean small = a[0].label < 0 && isByte(a[0].value);
+        put(small ? 0x6a : 0x68);
+        imm(a[0], small ? 1 : 4);
+        return;
+      }
+      if (a[0].kind == MEM) {
+        // the default operand size is already 64 bits on x86-64
+        ext(push ? 0xff : 0x8f, push ? 6 : 0, a[0], 4);
+        return;
+      }
+      break;
+    default:
+      break;
+    }
+    throw error();
+  }
+
+  // move the instruction just assembled to its section
+  private void commit()
+  {
+    if (section.bss)
+      throw new IllegalArgumentException("x86: code in the bss");
+    int at = section.size;
+    section.put(ins, len);
+    for (int i = 0; i < insFixupCount; i++) {
+      int off = insFixups[3 * i];
+      if (fixups == fixupOffsets.length) {
+        int n = 2 * fixups;
+        fixupInData = Arrays.copyOf(fixupInData, n);
+        fixupOffsets = Arrays.copyOf(fixupOffsets, n);
+        fixupLabels = Arrays.copyOf(fixupLabels, n);
+        fixupPc = Arrays.copyOf(fixupPc, n);
+      }
+      fixupInData[fixups] = section == data;
+      fixupOffsets[fixups] = at + off;
+      fixupLabels[fixups] = insFixups[3 * i + 1];
+      fixupPc[fixups] = insFixups[3 * i + 2] == 0 ? -1 : len - off;
+      fixups++;
+    }
+  }
+
+  // ////////////////////////////////////////
+  // directives
+  private void directive(String op, List<String> args)
+  {
+    switch (op) {
+    case ".text":
+      section = text;
+      return;
+    case ".data":
+      section = data;
+      return;
+    case ".globl":
+    case ".section":
+      return;
+    case ".int":
+      for (String arg : args) {
+        long v;
+        try {
+          v = Long.decode(arg);
+        } catch (NumberFormatException e) {
+          throw error();
+        }
+        len = 0;
+        insFixupCount = 0;
+        putInt(v);
+        commit();
+      }
+      return;
+    case ".string":
+      if (args.size() != 1 || !args.get(0).startsWith("\"")
+          || !args.get(0).endsWith("\""))
+        throw error();
+      String s = args.get(0);
+      for (int i = 1; i < s.length() - 1; i++) {
+        char c = s.charAt(i);
+        if (c == '\\') {
+          c = s.charAt(++i);
+          c = c == 'n' ? '\n' : c == 't' ? '\t' : c;
+        }
+        section.put(c);
+      }
+      section.put(0);
+      return;
+    case ".lcomm":
+      if (args.size() != 2)
+        throw error();
+      int size = Integer.parseInt(args.get(1));
+      bss.size = (bss.size + 15) & ~15;
+      Section saved = section;
+      section = bss;
+      define(args.get(0));
+      section = saved;
+      bss.size += size;
+      return;
+    default:
+      throw error();
+    }
+  }
+
+  // ////////////////////////////////////////
+  // linking
+  private long address(Section s, long textAddr, long dataAddr, long bssAddr)
+  {
+    return s == text ? textAddr : s == data ? dataAddr : bssAddr;
+  }
+
+  // the address of the label "name", once linked
+  long address(String name, long textAddr, long dataAddr, long bssAddr)
+  {
+    Integer n = labels.get(name);
+    if (n == null || labelSections.get(n) == null)
+      throw new IllegalArgumentException("x86: undefined label: " + name);
+    return address(labelSections.get(n), textAddr, dataAddr, bssAddr)
+        + labelOffsets[n];
+  }
+
+  // Patch the references to labels, the sections being put at the
+  // given addresses.
+  void link(long textAddr, long dataAddr, long bssAddr)
+  {
+    if (line.length() != 0) {
+      assemble(line.toString(), 0, line.length());
+      line.setLength(0);
+    }
+    for (int i = 0; i < fixups; i++) {
+      int label = fixupLabels[i];
+      Section ls = labelSections.get(label);
+      if (ls == null)
+        throw new IllegalArgumentException("x86: undefined label: "
+            + names.get(label));
+      Section s = fixupInData[i] ? data : text;
+      int off = fixupOffsets[i];
+      long target = address(ls, textAddr, dataAddr, bssAddr)
+          + labelOffsets[label];
+      long addend = (s.bytes[off] & 0xff) | (s.bytes[off + 1] & 0xff) << 8
+          | (s.bytes[off + 2] & 0xff) << 16 | (long) s.bytes[off + 3] << 24;
+      long v = target + addend;
+      if (fixupPc[i] >= 0)
+        v -= address(s, textAddr, dataAddr, bssAddr) + off + fixupPc[i];
+      if (v != (int) v && !(fixupPc[i] < 0 && !x64 && v >= 0
+          && v <= 0xffffffffL))
+        throw new IllegalArgumentException("x86: out of range: "
+            + names.get(label));
+      s.putInt(off, (int) v);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package util;
+
+// An error found in a source file. The compiler phases collect
+// these in a list instead of aborting, so one run can report every
+// error in a file.
+public class Diagnostic implements Comparable<Diagnostic>
+{
+  public String fname;
+  public int lineNum;
+  public int colNum;
+  public String message;
+
+  public Diagnostic(String fname, int lineNum, int colNum, String message)
+  {
+    this.fname = fname;
+    this.lineNum = lineNum;
+    this.colNum = colNum;
+    this.message = message;
+  }
+
+  // order by position in the file
+  @Override
+  public int compareTo(Diagnostic d)
+  {
+    if (this.lineNum != d.lineNum)
+      return Integer.compare(this.lineNum, d.lineNum);
+    return Integer.compare(this.colNum, d.colNum);
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.fname + ": at line " + this.lineNum + ", colum "
+        + this.colNum + ": " + this.message;
+  }
+}
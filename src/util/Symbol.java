@@ -0,0 +1,178 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+// Interned names. Every distinct spelling seen by the compiler
+// is mapped to one unique Symbol carrying a small integer id, so
+// that later phases can compare names by identity (or by id)
+// instead of by String.equals(), and a name that occurs a million
+// times in the source is only stored once.
+public class Symbol
+{
+  public final String name;
+  public final int id;
+  private final int hash;
+
+  private Symbol(String name, int id, int hash)
+  {
+    this.name = name;
+    this.id = id;
+    this.hash = hash;
+  }
+
+  // open addressing, linear probing, power of 2 size
+  private static Symbol[] table = new Symbol[1024];
+  private static int count = 0;
+  // all the symbols, indexed by their id
+  private static volatile Symbol[] symbols = new Symbol[512];
+
+  // Look the characters b[start .. start+len) up, creating the
+  // symbol on its first occurrence only. Bytes are taken as
+  // ISO-8859-1 characters, which is how the lexer reads them.
+  public static Symbol intern(byte[] b, int start, int len)
+  {
+    return intern(b, start, len, hash(b, start, len));
+  }
+
+  private static synchronized Symbol intern(byte[] b, int start, int len,
+      int h)
+  {
+    int mask = table.length - 1;
+    int i = mix(h) & mask;
+    Symbol s;
+    while ((s = table[i]) != null) {
+      if (s.hash == h && s.sameAs(b, start, len))
+        return s;
+      i = (i + 1) & mask;
+    }
+    s = new Symbol(new String(b, start, len, StandardCharsets.ISO_8859_1),
+        count, h);
+    insert(i, s);
+    return s;
+  }
+
+  public static synchronized Symbol intern(String name)
+  {
+    int h = name.hashCode();
+    int mask = table.length - 1;
+    int i = mix(h) & mask;
+    Symbol s;
+    while ((s = table[i]) != null) {
+      if (s.hash == h && s.name.equals(name))
+        return s;
+      i = (i + 1) & mask;
+    }
+    s = new Symbol(name, count, h);
+    insert(i, s);
+    return s;
+  }
+
+  // The id must come from a symbol already handed out to the
+  // caller (through a token, say), so no locking is needed here.
+  public static Symbol get(int id)
+  {
+    return symbols[id];
+  }
+
+  // Forget all the symbols, for a compile server to call between
+  // two command lines, so that the table does not keep every name
+  // of every request. No symbol (or id) handed out before may be
+  // used afterwards.
+  public static synchronized void reset()
+  {
+    table = new Symbol[1024];
+    count = 0;
+    symbols = new Symbol[512];
+  }
+
+  // number of distinct symbols created so far
+  public static synchronized int size()
+  {
+    return count;
+  }
+
+  private boolean sameAs(byte[] b, int start, int len)
+  {
+    if (name.length() != len)
+      return false;
+    for (int i = 0; i < len; i++)
+      if (name.charAt(i) != (b[start + i] & 0xff))
+        return false;
+    return true;
+  }
+
+  // same as String.hashCode() on the ISO-8859-1 decoding
+  private static int hash(byte[] b, int start, int len)
+  {
+    int h = 0;
+    for (int i = 0; i < len; i++)
+      h = 31 * h + (b[start + i] & 0xff);
+    return h;
+  }
+
+  private static int mix(int h)
+  {
+    return h ^ (h >>> 16);
+  }
+
+  private static void insert(int i, Symbol s)
+  {
+    table[i] = s;
+    if (count == symbols.length)
+      symbols = java.util.Arrays.copyOf(symbols, 2 * count);
+    symbols[count++] = s;
+    // keep the load factor under 1/2
+    if (2 * count > table.length)
+      table = rehash(table);
+  }
+
+  private static Symbol[] rehash(Symbol[] old)
+  {
+    Symbol[] t = new Symbol[old.length * 2];
+    int mask = t.length - 1;
+    for (Symbol o : old) {
+      if (o == null)
+        continue;
+      int j = mix(o.hash) & mask;
+      while (t[j] != null)
+        j = (j + 1) & mask;
+      t[j] = o;
+    }
+    return t;
+  }
+
+  // A private front to the shared table, for one thread (one lexer,
+  // say) only. Names already in the cache are found with no locking
+  // at all: only the first occurrence of a name in a cache goes
+  // through the synchronized table, so that lexers running in
+  // parallel don't keep contending for it.
+  public static class Cache
+  {
+    private Symbol[] slots = new Symbol[256];
+    private int count = 0;
+
+    public Symbol intern(byte[] b, int start, int len)
+    {
+      int h = hash(b, start, len);
+      int mask = slots.length - 1;
+      int i = mix(h) & mask;
+      Symbol s;
+      while ((s = slots[i]) != null) {
+        if (s.hash == h && s.sameAs(b, start, len))
+          return s;
+        i = (i + 1) & mask;
+      }
+      s = Symbol.intern(b, start, len, h);
+      slots[i] = s;
+      if (2 * ++count > slots.length)
+        slots = rehash(slots);
+      return s;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.name;
+  }
+}
@@ -0,0 +1,137 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+public class SlpGen
+{
+  static Random random;
+  static Writer out;
+  static int vars, depth, fanout, eseq;
+
+  public static void print(String s) throws IOException
+  {
+    out.write(s);
+  }
+
+  public static void usage()
+  {
+    System.out.println ("Straight-line program generator.\n"
+        + "Usage: java SlpGen <statements> [depth [fanout [eseq [vars [seed]]]]]\n"
+        + "   depth:  depth of the expressions (default 3)\n"
+        + "   fanout: most values printed by one print (default 4)\n"
+        + "   eseq:   deepest nesting of (stm, exp) expressions (default 1)\n"
+        + "   vars:   number of variables (default 16)\n"
+        + "   seed:   seed of the random numbers (default 0)");
+    System.exit(1);
+  }
+
+  static String var()
+  {
+    return "v" + random.nextInt(vars);
+  }
+
+  // An expression "d" operators deep, with at most "e" levels of
+  // (stm, exp) in it. Divisions are by non zero constants only, so
+  // the programs run to the end.
+  static void exp(int d, int e) throws IOException
+  {
+    if (d <= 0) {
+      if (random.nextInt(3) == 0)
+        print (Integer.toString(random.nextInt(100)));
+      else
+        print (var());
+      return;
+    }
+    if (e > 0 && random.nextInt(8) == 0) {
+      print ("(" + var() + " := ");
+      exp(d - 1, e - 1);
+      print (", ");
+      exp(d - 1, e - 1);
+      print (")");
+      return;
+    }
+    print ("(");
+    exp(d - 1, e);
+    switch (random.nextInt(4)) {
+    case 0:
+      print (" + ");
+      break;
+    case 1:
+      print (" - ");
+      break;
+    case 2:
+      print (" * ");
+      break;
+    default:
+      print (" / " + (1 + random.nextInt(9)) + ")");
+      return;
+    }
+    exp(random.nextInt(d), e);
+    print (")");
+  }
+
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 1)
+      usage();
+
+    int num = 0;
+    long seed = 0;
+    depth = 3;
+    fanout = 4;
+    eseq = 1;
+    vars = 16;
+    try {
+      num = Integer.parseInt(args[0]);
+      if (args.length > 1)
+        depth = Integer.parseInt(args[1]);
+      if (args.length > 2)
+        fanout = Integer.parseInt(args[2]);
+      if (args.length > 3)
+        eseq = Integer.parseInt(args[3]);
+      if (args.length > 4)
+        vars = Integer.parseInt(args[4]);
+      if (args.length > 5)
+        seed = Long.parseLong(args[5]);
+    }
+    catch (Exception e) {
+      System.out.println("Expects integers");
+      usage();
+    }
+    if (num < 0 || depth < 0 || fanout < 1 || eseq < 0 || vars < 1)
+      usage();
+
+    random = new Random(seed);
+    out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+
+    print ("// generated by: java SlpGen");
+    for (String arg : args)
+      print (" " + arg);
+    print ("\n");
+    for (int i = 0; i < vars; i++)
+      print ("v" + i + " := " + i + ";\n");
+    for (int i = 0; i < num; i++) {
+      if (random.nextInt(4) == 0) {
+        print ("print(");
+        int n = 1 + random.nextInt(fanout);
+        for (int k = 0; k < n; k++) {
+          if (k > 0)
+            print (", ");
+          exp(depth, eseq);
+        }
+        print (")");
+      } else {
+        print (var() + " := ");
+        exp(depth, eseq);
+      }
+      print (";\n");
+    }
+    print ("print(");
+    for (int i = 0; i < vars; i++)
+      print ((i > 0 ? ", " : "") + "v" + i);
+    print (")\n");
+    out.flush();
+  }
+}